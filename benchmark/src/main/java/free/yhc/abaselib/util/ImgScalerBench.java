@@ -0,0 +1,112 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Resizing sampled decode(ex. 4032x3024 with inSampleSize 8) to exact thumbnail size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ImgScalerBench {
+    private static final int SW = 504;
+    private static final int SH = 378;
+
+    @Param({ "320x240", "480x360", "1024x768" })
+    public String dst;
+
+    @Param({ "false", "true" })
+    public boolean parallel;
+
+    private int mDw;
+    private int mDh;
+    private int[] mSrc;
+    private int[] mWork;
+    private ExecutorService mExecutor;
+
+    @Setup
+    public void
+    setup() {
+        String[] wh = dst.split("x");
+        mDw = Integer.parseInt(wh[0]);
+        mDh = Integer.parseInt(wh[1]);
+        mSrc = new int[SW * SH];
+        Random r = new Random(0);
+        for (int i = 0; i < mSrc.length; i++)
+            mSrc[i] = 0xff000000 | r.nextInt(0x1000000);
+        mWork = new int[SW * SH];
+        mExecutor = parallel
+                ? Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1))
+                : null;
+    }
+
+    @TearDown
+    public void
+    tearDown() {
+        if (null != mExecutor)
+            mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public int[]
+    scale() {
+        // Source is used as working buffer.
+        System.arraycopy(mSrc, 0, mWork, 0, mSrc.length);
+        return ImgScaler.scale(mWork, SW, SH, mDw, mDh, mExecutor);
+    }
+}
@@ -8,6 +8,7 @@ import android.support.annotation.NonNull;
 
 import java.io.IOException;
 
+import free.yhc.abaselib.metrics.Tracer;
 import free.yhc.baselib.Baselib;
 import free.yhc.baselib.Logger;
 import free.yhc.baselib.adapter.android.ALoggerAdapter;
@@ -59,6 +60,7 @@ public class ABaselib {
         if(sInitialized)
             throw new AssertionError();
         sInitialized = true;
+        long tr = Tracer.begin("ABaselib.initLibrary");
         if (null == defaultOwner) {
             HandlerThread ht = new HandlerThread("", Process.THREAD_PRIORITY_FOREGROUND);
             ht.start();
@@ -69,8 +71,10 @@ public class ABaselib {
                 new ALoggerAdapter(),
                 new ANetConnAdapter(appContext));
         AppEnv.init(appContext, uiHandler);
+        MemoryGovernor.init(appContext);
 
         P = Logger.create(Baselib.class, Logger.LOGLV_DEFAULT);
+        Tracer.end(tr);
         if (DBG) P.v("initLibrary is done");
     }
 
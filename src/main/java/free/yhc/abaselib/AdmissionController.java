@@ -0,0 +1,390 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.IdentityHashMap;
+
+import free.yhc.abaselib.metrics.Histogram;
+import free.yhc.abaselib.metrics.Metrics;
+import free.yhc.abaselib.metrics.StripedCounter;
+import free.yhc.baselib.Logger;
+import free.yhc.baselib.adapter.HandlerAdapter;
+import free.yhc.baselib.async.TaskManager;
+import free.yhc.baselib.async.TaskManagerBase;
+import free.yhc.baselib.async.TmTask;
+
+/*
+ * Admission control of tasks added to TaskManager - usually guest TaskManager of LifeSupporter.
+ *
+ * Producers submit tasks via this instead of TaskManager.addTask. Backlog is number of tasks
+ *   in ready and run queue, including ones added to TaskManager directly.
+ * If backlog reaches limit, task is rejected or producer is blocked by policy.
+ *
+ * With adaptive limit, limit moves in [minimum limit, maximum backlog] by observed latency
+ *   from submission to end of run (AIMD):
+ *   - latency <= target : limit += 1 / limit
+ *   - latency >  target : limit *= 0.9 (at most once per target latency)
+ *
+ * Metrics (prefix "admission.[name].")
+ *   depth     : histogram of backlog at each submission
+ *   wait.us   : histogram of time from submission to start of run
+ *   run.us    : histogram of run time
+ *   admitted / rejected / blocked : counters
+ */
+public class AdmissionController {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(AdmissionController.class, Logger.LOGLV_DEFAULT);
+
+    private static final double DECREASE_RATIO = 0.9;
+
+    public enum Policy {
+        REJECT,
+        BLOCK,
+    }
+
+    private final TaskManager mTm;
+    private final Policy mPolicy;
+    private final int mMaxBacklog;
+    private final int mMinLimit;
+    private final long mTargetLatency; // us. 0 if limit is not adaptive.
+
+    private final Histogram mMtDepth;
+    private final Histogram mMtWait;
+    private final Histogram mMtRun;
+    private final StripedCounter mMtAdmitted;
+    private final StripedCounter mMtRejected;
+    private final StripedCounter mMtBlocked;
+
+    // All below are guarded by 'this'
+    // Submitted task -> submission time(us). Task is removed when it leaves TaskManager.
+    private final IdentityHashMap<TmTask, Long> mSubmitted = new IdentityHashMap<>();
+    // Task -> time(us) when it starts running.
+    private final IdentityHashMap<TmTask, Long> mRunStart = new IdentityHashMap<>();
+    // Number of tasks added to TaskManager directly (not via this).
+    private int mForeign = 0;
+    private double mLimit;
+    private long mLastDecrease = 0; // us
+    private boolean mClosed = false;
+
+    private final TaskManagerBase.TaskQEventListener mListener
+            = new TaskManagerBase.TaskQEventListener() {
+        @Override
+        public void
+        onEvent(@NotNull TaskManagerBase tm,
+                @NotNull TaskManagerBase.TaskQEvent ev,
+                int szReady, int szRun,
+                @NotNull TmTask task) {
+            onQEvent(ev, task);
+        }
+    };
+
+    public static class Builder {
+        private final TaskManager mTm;
+        private final HandlerAdapter mEvHandler;
+        private String mName = "default";
+        private Policy mPolicy = Policy.REJECT;
+        private int mMaxBacklog = Integer.MAX_VALUE;
+        private int mMinLimit = 1;
+        private long mTargetLatency = 0;
+
+        /**
+         * @param evHandler queue events of {@code tm} are handled here. Producers SHOULD NOT
+         *                  be blocked at this context with {@link Policy#BLOCK}.
+         */
+        public Builder(@NotNull TaskManager tm, @NotNull HandlerAdapter evHandler) {
+            mTm = tm;
+            mEvHandler = evHandler;
+        }
+
+        public Builder(@NotNull TaskManager tm) {
+            this(tm, AppEnv.getUiHandlerAdapter());
+        }
+
+        /**
+         * Name used in metric names.
+         */
+        @NotNull
+        public Builder
+        setName(@NotNull String name) {
+            mName = name;
+            return this;
+        }
+
+        @NotNull
+        public Builder
+        setPolicy(@NotNull Policy policy) {
+            mPolicy = policy;
+            return this;
+        }
+
+        @NotNull
+        public Builder
+        setMaxBacklog(int maxBacklog) {
+            P.bug(0 < maxBacklog);
+            mMaxBacklog = maxBacklog;
+            return this;
+        }
+
+        /**
+         * Enable adaptive limit.
+         * @param targetLatency ms. Target of time from submission to end of run.
+         * @param minLimit limit never goes below this.
+         */
+        @NotNull
+        public Builder
+        setAdaptive(long targetLatency, int minLimit) {
+            P.bug(0 < targetLatency && 0 < minLimit);
+            mTargetLatency = targetLatency * 1000;
+            mMinLimit = minLimit;
+            return this;
+        }
+
+        @NotNull
+        public AdmissionController
+        create() {
+            P.bug(mMinLimit <= mMaxBacklog);
+            P.bug(0 == mTargetLatency || Integer.MAX_VALUE != mMaxBacklog);
+            return new AdmissionController(
+                    mTm, mEvHandler, mName, mPolicy, mMaxBacklog, mMinLimit, mTargetLatency);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private AdmissionController(@NotNull TaskManager tm,
+                                @NotNull HandlerAdapter evHandler,
+                                @NotNull String name,
+                                @NotNull Policy policy,
+                                int maxBacklog,
+                                int minLimit,
+                                long targetLatency) {
+        mTm = tm;
+        mPolicy = policy;
+        mMaxBacklog = maxBacklog;
+        mMinLimit = minLimit;
+        mTargetLatency = targetLatency;
+        mLimit = maxBacklog;
+        String prefix = "admission." + name + ".";
+        mMtDepth = Metrics.histogram(prefix + "depth");
+        mMtWait = Metrics.histogram(prefix + "wait.us");
+        mMtRun = Metrics.histogram(prefix + "run.us");
+        mMtAdmitted = Metrics.counter(prefix + "admitted");
+        mMtRejected = Metrics.counter(prefix + "rejected");
+        mMtBlocked = Metrics.counter(prefix + "blocked");
+        //noinspection unchecked
+        mTm.addTaskQEventListener(evHandler, mListener);
+    }
+
+    /**
+     * Called with 'this' locked.
+     */
+    private int
+    backlog() {
+        return mSubmitted.size() + mForeign;
+    }
+
+    /**
+     * Called with 'this' locked.
+     */
+    private void
+    adaptLimit(long latency, long now) {
+        if (0 == mTargetLatency)
+            return;
+        if (latency <= mTargetLatency)
+            mLimit = Math.min(mMaxBacklog, mLimit + 1.0 / mLimit);
+        else if (now - mLastDecrease >= mTargetLatency) {
+            // Tasks submitted before decrease also see high latency. Don't decrease again for them.
+            mLimit = Math.max(mMinLimit, mLimit * DECREASE_RATIO);
+            mLastDecrease = now;
+            if (DBG) P.v("Limit is decreased: " + mLimit);
+        }
+    }
+
+    private synchronized void
+    onQEvent(@NotNull TaskManagerBase.TaskQEvent ev, @NotNull TmTask task) {
+        long now = Metrics.nowUs();
+        Long submitted = mSubmitted.get(task);
+        switch (ev) {
+        case ADDED_TO_READY:
+            if (null == submitted)
+                mForeign++;
+            break;
+        case MOVED_TO_RUN:
+            if (null != submitted)
+                mMtWait.record(now - submitted);
+            mRunStart.put(task, now);
+            break;
+        case REMOVED_FROM_READY:
+        case REMOVED_FROM_RUN:
+            Long start = mRunStart.remove(task);
+            if (null != start)
+                mMtRun.record(now - start);
+            if (null == submitted)
+                mForeign = Math.max(0, mForeign - 1);
+            else {
+                mSubmitted.remove(task);
+                if (TaskManagerBase.TaskQEvent.REMOVED_FROM_RUN == ev)
+                    adaptLimit(now - submitted, now);
+            }
+            // Room may be made for blocked producers.
+            notifyAll();
+            break;
+        default:
+            P.bug(false);
+        }
+    }
+
+    /**
+     * Called with 'this' locked.
+     */
+    private boolean
+    hasRoom() {
+        return backlog() < (int)mLimit;
+    }
+
+    /**
+     * @param timeout ms. 0 to wait forever. Used only with {@link Policy#BLOCK}.
+     */
+    private boolean
+    doSubmit(@NotNull TmTask task, boolean block, long timeout) throws InterruptedException {
+        synchronized (this) {
+            mMtDepth.record(backlog());
+            if (!hasRoom() && block && !mClosed) {
+                mMtBlocked.inc();
+                long deadline = 0 < timeout ? System.currentTimeMillis() + timeout : 0;
+                while (!hasRoom() && !mClosed) {
+                    if (0 == deadline)
+                        wait();
+                    else {
+                        long remain = deadline - System.currentTimeMillis();
+                        if (0 >= remain)
+                            break;
+                        wait(remain);
+                    }
+                }
+            }
+            if (mClosed || !hasRoom()) {
+                mMtRejected.inc();
+                return false;
+            }
+            mSubmitted.put(task, Metrics.nowUs());
+            mMtAdmitted.inc();
+        }
+        mTm.addTask(task);
+        return true;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    @NotNull
+    public TaskManager
+    getTaskManager() {
+        return mTm;
+    }
+
+    /**
+     * Add task to TaskManager by policy.
+     * With {@link Policy#BLOCK}, producer is blocked until there is room for the task.
+     * @return false if task is rejected.
+     */
+    public boolean
+    submit(@NotNull TmTask task) throws InterruptedException {
+        return doSubmit(task, Policy.BLOCK == mPolicy, 0);
+    }
+
+    /**
+     * Same with {@link #submit(TmTask)}. But producer is blocked at most {@code timeout} ms.
+     */
+    public boolean
+    submit(@NotNull TmTask task, long timeout) throws InterruptedException {
+        P.bug(0 < timeout);
+        return doSubmit(task, Policy.BLOCK == mPolicy, timeout);
+    }
+
+    /**
+     * Add task only if there is room now regardless of policy.
+     * @return false if task is rejected.
+     */
+    public boolean
+    trySubmit(@NotNull TmTask task) {
+        try {
+            return doSubmit(task, false, 0);
+        } catch (InterruptedException e) {
+            // Never blocked.
+            P.bug(false);
+            return false;
+        }
+    }
+
+    public synchronized int
+    getBacklog() {
+        return backlog();
+    }
+
+    /**
+     * @return current limit of backlog. Same with maximum backlog if limit is not adaptive.
+     */
+    public synchronized int
+    getLimit() {
+        return (int)mLimit;
+    }
+
+    /**
+     * Stop observing TaskManager. Blocked producers are woken up and their tasks are rejected.
+     * This SHOULD be called at owner thread of TaskManager.
+     */
+    public void
+    close() {
+        P.bug(mTm.isOwnerThread());
+        synchronized (this) {
+            if (mClosed)
+                return;
+            mClosed = true;
+            notifyAll();
+        }
+        //noinspection unchecked
+        mTm.removeTaskQEventListener(mListener);
+    }
+}
@@ -43,6 +43,8 @@ import android.support.annotation.NonNull;
 import java.io.File;
 import java.io.IOException;
 
+import free.yhc.abaselib.util.HandlerExecutor;
+import free.yhc.abaselib.util.UiIoGuard;
 import free.yhc.baselib.Logger;
 import free.yhc.baselib.adapter.HandlerAdapter;
 import free.yhc.baselib.adapter.android.AHandlerAdapter;
@@ -56,6 +58,9 @@ public class AppEnv {
     //   because those are set only at init() function, and SHOULD NOT be changed.
     private static Context sAppContext = null;
     private static AHandlerAdapter sUiHandlerAdapter = null;
+    // Cached to avoid walking Handler -> Looper -> Thread at every thread-affinity check.
+    private static Thread sUiThread = null;
+    private static HandlerExecutor sUiExecutor = null;
     private static File sTmpDir = null;
 
     private static void
@@ -77,14 +82,23 @@ public class AppEnv {
          @NonNull Handler uiHandler) {
         sAppContext = appContext;
         sUiHandlerAdapter = new AHandlerAdapter(uiHandler);
+        sUiThread = uiHandler.getLooper().getThread();
+        sUiExecutor = new HandlerExecutor(uiHandler);
     }
 
 
     static File
     initTmpDir(@NonNull String tmpDir) throws IOException {
+        long guard = UiIoGuard.enter("AppEnv.initTmpDir");
+        File dir = new File(tmpDir);
+        try {
+            prepareTempDir(dir);
+        } finally {
+            UiIoGuard.exit("AppEnv.initTmpDir", guard);
+        }
+        // Changed only if new directory is ready.
         File oldDir = sTmpDir;
-        sTmpDir = new File(tmpDir);
-        prepareTempDir(sTmpDir);
+        sTmpDir = dir;
         return oldDir;
     }
 
@@ -114,6 +128,24 @@ public class AppEnv {
         return sUiHandlerAdapter.getHandler();
     }
 
+    @NonNull
+    public static Thread
+    getUiThread() {
+        if (DBG) ABaselib.verifyLibReady();
+        return sUiThread;
+    }
+
+    /**
+     * Executor running jobs at UI thread.
+     * This is shared by all modules. So, DO NOT shut it down.
+     */
+    @NonNull
+    public static HandlerExecutor
+    getUiExecutor() {
+        if (DBG) ABaselib.verifyLibReady();
+        return sUiExecutor;
+    }
+
     public static File
     getTmpDir() { return sTmpDir; }
 }
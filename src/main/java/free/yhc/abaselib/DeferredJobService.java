@@ -0,0 +1,83 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+import free.yhc.baselib.Logger;
+
+/*
+ * JobService running batch of DeferredTaskBatcher.
+ * This is declared at library's manifest.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class DeferredJobService extends JobService {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(DeferredJobService.class, Logger.LOGLV_DEFAULT);
+
+    @Override
+    public boolean
+    onStartJob(final JobParameters params) {
+        if (DBG) P.v("Start job: " + params.getJobId());
+        DeferredTaskBatcher b = DeferredTaskBatcher.get(params.getJobId());
+        if (null == b)
+            // Process is restarted after job was scheduled. Deferred tasks are already lost.
+            return false;
+        return b.drain(new DeferredTaskBatcher.OnBatchDoneListener() {
+            @Override
+            public void
+            onBatchDone() {
+                if (DBG) P.v("Job is done: " + params.getJobId());
+                jobFinished(params, false);
+            }
+        });
+    }
+
+    @Override
+    public boolean
+    onStopJob(JobParameters params) {
+        // Tasks are already in TaskManager. They keep running without job window.
+        if (DBG) P.v("Job is stopped by system: " + params.getJobId());
+        DeferredTaskBatcher b = DeferredTaskBatcher.get(params.getJobId());
+        if (null != b)
+            b.onJobStopped();
+        return false;
+    }
+}
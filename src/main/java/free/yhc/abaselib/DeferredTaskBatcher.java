@@ -0,0 +1,363 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.util.SparseArray;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import free.yhc.baselib.Logger;
+import free.yhc.baselib.async.TaskManager;
+import free.yhc.baselib.async.TaskManagerBase;
+import free.yhc.baselib.async.TmTask;
+
+/*
+ * Alternative of LifeSupporter for deferrable tasks.
+ *
+ * Instead of starting service and holding locks as soon as task is queued, deferred tasks are
+ *   collected and added to TaskManager all together in a JobScheduler window.
+ * System holds wakelock during the window. So, neither service nor lock of LifeSupporter
+ *   is required. That is, TaskManager used here SHOULD NOT be a guest of LifeSupporter.
+ *
+ * Tasks are kept only in memory. If process is killed before job window, they are lost.
+ * JobScheduler is available from LOLLIPOP. Under it, tasks are added to TaskManager immediately.
+ */
+public class DeferredTaskBatcher {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(DeferredTaskBatcher.class, Logger.LOGLV_DEFAULT);
+
+    // Guarded by sBatchers
+    private static final SparseArray<DeferredTaskBatcher> sBatchers = new SparseArray<>();
+
+    private final TaskManager mTm;
+    private final int mJobId;
+    private final boolean mRequiresCharging;
+    private final boolean mRequiresUnmetered;
+    private final long mMaxDelay;
+
+    // All below are guarded by 'this'
+    private final List<TmTask> mPending = new ArrayList<>();
+    // true while job is scheduled but its window is not started yet.
+    private boolean mScheduled = false;
+    // true while job window is running - from drain() to end of batch or onJobStopped().
+    // Job SHOULD NOT be scheduled or cancelled during the window. JobScheduler stops running job
+    //   of same id - wakelock is released. Tasks deferred during the window are scheduled
+    //   after the job is finished.
+    private boolean mRunning = false;
+    // Changed whenever job window ends. Batch-done of stale window is ignored.
+    private int mRunGen = 0;
+
+    /**
+     * Notified when all tasks of a batch leave TaskManager.
+     */
+    interface OnBatchDoneListener {
+        void onBatchDone();
+    }
+
+    public static class Builder {
+        private final TaskManager mTm;
+        private final int mJobId;
+        private boolean mRequiresCharging = false;
+        private boolean mRequiresUnmetered = false;
+        private long mMaxDelay = 0;
+
+        /**
+         * @param jobId JobScheduler job id. This SHOULD be unique in the application.
+         */
+        public Builder(@NotNull TaskManager tm, int jobId) {
+            mTm = tm;
+            mJobId = jobId;
+        }
+
+        @NotNull
+        public Builder
+        setRequiresCharging(boolean v) {
+            mRequiresCharging = v;
+            return this;
+        }
+
+        @NotNull
+        public Builder
+        setRequiresUnmetered(boolean v) {
+            mRequiresUnmetered = v;
+            return this;
+        }
+
+        /**
+         * @param ms Batch runs after at most this time even if constraints are not met.
+         *           0 for no deadline (default).
+         */
+        @NotNull
+        public Builder
+        setMaxDelay(long ms) {
+            mMaxDelay = ms;
+            return this;
+        }
+
+        @NotNull
+        public DeferredTaskBatcher
+        create() {
+            DeferredTaskBatcher b = new DeferredTaskBatcher(
+                    mTm, mJobId, mRequiresCharging, mRequiresUnmetered, mMaxDelay);
+            synchronized (sBatchers) {
+                P.bug(null == sBatchers.get(mJobId));
+                sBatchers.put(mJobId, b);
+            }
+            return b;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private static boolean
+    isJobSchedulerAvailable() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void
+    scheduleJob() {
+        Context context = AppEnv.getAppContext();
+        JobInfo.Builder jb = new JobInfo.Builder(
+                mJobId, new ComponentName(context, DeferredJobService.class));
+        jb.setRequiresCharging(mRequiresCharging);
+        if (mRequiresUnmetered)
+            jb.setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+        if (0 < mMaxDelay)
+            jb.setOverrideDeadline(mMaxDelay);
+        JobScheduler js = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (JobScheduler.RESULT_SUCCESS != js.schedule(jb.build())) {
+            // Scheduling fails. Tasks should not be lost.
+            P.w("Fail to schedule job. Run tasks now: " + mJobId);
+            drain(null);
+        }
+    }
+
+    /**
+     * Called at the end of job window.
+     * @return true if this is the end of current window.
+     */
+    private boolean
+    onWindowEnd(int gen) {
+        boolean schedule;
+        synchronized (this) {
+            if (!mRunning || gen != mRunGen)
+                return false;
+            mRunning = false;
+            mRunGen++;
+            schedule = !mPending.isEmpty() && !mScheduled;
+            mScheduled = mScheduled || schedule;
+        }
+        if (schedule)
+            scheduleJob();
+        return true;
+    }
+
+    private DeferredTaskBatcher(@NotNull TaskManager tm,
+                                int jobId,
+                                boolean requiresCharging,
+                                boolean requiresUnmetered,
+                                long maxDelay) {
+        mTm = tm;
+        mJobId = jobId;
+        mRequiresCharging = requiresCharging;
+        mRequiresUnmetered = requiresUnmetered;
+        mMaxDelay = maxDelay;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    // Package private - used by DeferredJobService
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    static DeferredTaskBatcher
+    get(int jobId) {
+        synchronized (sBatchers) {
+            return sBatchers.get(jobId);
+        }
+    }
+
+    /**
+     * Add all pending tasks to TaskManager.
+     * @param listener {@code null} if caller is not interested in end of batch.
+     * @return false if there is no task to run.
+     */
+    boolean
+    drain(final OnBatchDoneListener listener) {
+        final List<TmTask> tasks;
+        final int gen;
+        synchronized (this) {
+            tasks = new ArrayList<>(mPending);
+            mPending.clear();
+            mScheduled = false;
+            if (null != listener && !tasks.isEmpty())
+                mRunning = true;
+            gen = mRunGen;
+        }
+        if (DBG) P.v("Drain deferred tasks: " + tasks.size());
+        if (tasks.isEmpty())
+            return false;
+        if (null != listener) {
+            final Set<TmTask> remains = Collections.newSetFromMap(new IdentityHashMap<TmTask, Boolean>());
+            remains.addAll(tasks);
+            TaskManagerBase.TaskQEventListener ql = new TaskManagerBase.TaskQEventListener() {
+                @Override
+                public void
+                onEvent(@NotNull TaskManagerBase tm,
+                        @NotNull TaskManagerBase.TaskQEvent ev,
+                        int szReady, int szRun,
+                        @NotNull TmTask task) {
+                    switch (ev) {
+                    case REMOVED_FROM_READY:
+                    case REMOVED_FROM_RUN:
+                        if (remains.remove(task) && remains.isEmpty()) {
+                            final TaskManagerBase.TaskQEventListener self = this;
+                            // Listener is not removed while TaskManager is notifying events.
+                            AppEnv.getUiHandler().post(new Runnable() {
+                                @Override
+                                public void
+                                run() {
+                                    //noinspection unchecked
+                                    mTm.removeTaskQEventListener(self);
+                                }
+                            });
+                            // Window may be already stopped by system.
+                            // Then, job is already finished and new job may be running.
+                            if (isCurrentWindow(gen)) {
+                                listener.onBatchDone();
+                                onWindowEnd(gen);
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            };
+            mTm.addTaskQEventListener(AppEnv.getUiHandlerAdapter(), ql);
+        }
+        for (TmTask t : tasks)
+            mTm.addTask(t);
+        return true;
+    }
+
+    private synchronized boolean
+    isCurrentWindow(int gen) {
+        return mRunning && gen == mRunGen;
+    }
+
+    /**
+     * Job window is stopped by system. Tasks already drained keep running without window.
+     */
+    void
+    onJobStopped() {
+        int gen;
+        synchronized (this) {
+            gen = mRunGen;
+        }
+        onWindowEnd(gen);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    @NotNull
+    public TaskManager
+    getTaskManager() {
+        return mTm;
+    }
+
+    /**
+     * Queue task to be run at next job window.
+     */
+    public void
+    defer(@NotNull TmTask task) {
+        if (!isJobSchedulerAvailable()) {
+            mTm.addTask(task);
+            return;
+        }
+        boolean schedule;
+        synchronized (this) {
+            mPending.add(task);
+            // If job window is running, job is scheduled at the end of window.
+            schedule = !mScheduled && !mRunning;
+            mScheduled = mScheduled || schedule;
+        }
+        if (schedule)
+            scheduleJob();
+    }
+
+    /**
+     * Run all deferred tasks now without waiting job window.
+     */
+    public void
+    flush() {
+        boolean cancel;
+        synchronized (this) {
+            // Running job SHOULD NOT be cancelled. Its batch is already in TaskManager.
+            cancel = mScheduled && !mRunning;
+        }
+        if (cancel && isJobSchedulerAvailable()) {
+            JobScheduler js = (JobScheduler)AppEnv.getAppContext()
+                    .getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            js.cancel(mJobId);
+        }
+        drain(null);
+    }
+
+    public synchronized int
+    getPendingCount() {
+        return mPending.size();
+    }
+}
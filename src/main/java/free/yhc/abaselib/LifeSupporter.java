@@ -36,15 +36,27 @@
 
 package free.yhc.abaselib;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import free.yhc.abaselib.metrics.Metrics;
+import free.yhc.abaselib.metrics.StripedCounter;
+import free.yhc.abaselib.metrics.Tracer;
 import free.yhc.baselib.Logger;
-import free.yhc.abaselib.util.AUtil;
+import free.yhc.baselib.adapter.HandlerAdapter;
+import free.yhc.baselib.adapter.android.AHandlerAdapter;
 import free.yhc.baselib.async.TaskManager;
 import free.yhc.baselib.async.TaskManagerBase;
 import free.yhc.baselib.async.TmTask;
@@ -56,11 +68,83 @@ public class LifeSupporter {
 
     private static final String WLTAG = "free.yhc.abaselib.LifeSupporter";
 
-    private PowerManager.WakeLock mWl = null;
-    private WifiManager.WifiLock mWfl = null;
-    private int mBalanceCnt = 0;
+    private static final StripedCounter sMtActivate = Metrics.counter("lifesup.activate");
+    private static final StripedCounter sMtDeactivate = Metrics.counter("lifesup.deactivate");
+    private static final StripedCounter sMtLingerReuse = Metrics.counter("lifesup.linger.reuse");
+    private static final StripedCounter sMtForceRelease = Metrics.counter("lifesup.force.release");
+    private static final StripedCounter sMtNetWifiLock = Metrics.counter("lifesup.netwifi.acquire");
+
     private final int mWlOpt;
     private final Class<?> mServiceCls;
+    // start() and stop() may be called at any thread.
+    // Counting is lock-free. Only transitions between 0 and 1 take mStateLock.
+    private final AtomicInteger mBalanceCnt = new AtomicInteger(0);
+    private final Object mStateLock = new Object();
+    private final LockAccount mAccount;
+    // Number of NetworkBound tasks in run queues of guest TaskManagers.
+    private final AtomicInteger mNetRunCnt = new AtomicInteger(0);
+
+    // See setLingerTime() and setMaxHoldTime()
+    private volatile long mLingerTime = 0;
+    private volatile long mMaxHoldTime = 0;
+
+    // Below are guarded by mStateLock.
+    private PowerManager.WakeLock mWl = null;
+    private WifiManager.WifiLock mWfl = null;
+    // Wifi lock for LOCK_WIFI_NETWORK_TASK
+    private WifiManager.WifiLock mNetWfl = null;
+    private BroadcastReceiver mConnReceiver = null;
+    // true if service is started and locks are held.
+    // This may be true even if mBalanceCnt is 0 - at linger window.
+    private boolean mActive = false;
+
+    // Generations are changed whenever expiry is re-armed or disarmed.
+    // removeCallbacks() can't stop runnable already dequeued and waiting mStateLock.
+    // So, expiry runnable of stale generation is ignored.
+    private int mLingerGen = 0;
+    private int mMaxHoldGen = 0;
+    private Runnable mLingerExpired = null;
+    private Runnable mMaxHoldExpired = null;
+
+    private class LingerExpired implements Runnable {
+        private final int mGen;
+
+        LingerExpired(int gen) {
+            mGen = gen;
+        }
+
+        @Override
+        public void
+        run() {
+            synchronized (mStateLock) {
+                // New task may arrive after this runnable is dispatched.
+                if (mGen != mLingerGen || 0 != mBalanceCnt.get())
+                    return;
+                if (DBG) P.v("Linger time is expired");
+                deactivate();
+            }
+        }
+    }
+
+    private class MaxHoldExpired implements Runnable {
+        private final int mGen;
+
+        MaxHoldExpired(int gen) {
+            mGen = gen;
+        }
+
+        @Override
+        public void
+        run() {
+            synchronized (mStateLock) {
+                if (mGen != mMaxHoldGen)
+                    return;
+                P.w("Locks are held too long. Force to release: balanceCnt: " + mBalanceCnt.get());
+                sMtForceRelease.inc();
+                deactivate();
+            }
+        }
+    }
 
     ///////////////////////////////////////////////////////////////////////////
     //
@@ -69,6 +153,20 @@ public class LifeSupporter {
     ///////////////////////////////////////////////////////////////////////////
     public static final int LOCK_WAKE = 0x01;
     public static final int LOCK_WIFI = 0x02;
+    /**
+     * Use instead of {@link #LOCK_WIFI}.
+     * Wifi lock is held only while at least one {@link NetworkBound} task is in run queue, and
+     *   active network is wifi.
+     * 'android.permission.ACCESS_NETWORK_STATE' is required.
+     */
+    public static final int LOCK_WIFI_NETWORK_TASK = 0x04;
+
+    /**
+     * TmTask implementing this interface is regarded as network-bound task.
+     * See {@link #LOCK_WIFI_NETWORK_TASK}.
+     */
+    public interface NetworkBound {
+    }
 
 
     ///////////////////////////////////////////////////////////////////////////
@@ -78,8 +176,7 @@ public class LifeSupporter {
     ///////////////////////////////////////////////////////////////////////////
     private void
     getWakeLock() {
-        // getWakeLock() and putWakeLock() are used only at TaskManager's owner thread
-        // So, we don't need to synchronize it!
+        // getWakeLock() and putWakeLock() are called with mStateLock held.
         if (DBG) P.i("Get Wakelock");
         P.bug(null == mWl && null == mWfl);
         // Initialize wakelock
@@ -120,6 +217,172 @@ public class LifeSupporter {
         }
     }
 
+    private static boolean
+    isWifiConnected() {
+        ConnectivityManager cm = (ConnectivityManager)AppEnv.getAppContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo ni = cm.getActiveNetworkInfo();
+        return null != ni
+               && ni.isConnected()
+               && ConnectivityManager.TYPE_WIFI == ni.getType();
+    }
+
+    /**
+     * Make wifi lock for LOCK_WIFI_NETWORK_TASK follow current state.
+     * Called with mStateLock held.
+     */
+    private void
+    updateNetWifiLock() {
+        if (!Util.bitIsSet(mWlOpt, LOCK_WIFI_NETWORK_TASK))
+            return;
+        boolean need = mActive
+                       && 0 < mNetRunCnt.get()
+                       && isWifiConnected();
+        if (need && null == mNetWfl) {
+            if (DBG) P.i("Get wifi lock for network task");
+            mNetWfl = ((WifiManager) AppEnv.getAppContext().getSystemService(Context.WIFI_SERVICE))
+                .createWifiLock(WifiManager.WIFI_MODE_FULL, WLTAG);
+            mNetWfl.acquire();
+            sMtNetWifiLock.inc();
+        } else if (!need && null != mNetWfl) {
+            if (DBG) P.i("Put wifi lock for network task");
+            // See comments at putWakeLock() to know why new lock is created every time.
+            mNetWfl.release();
+            mNetWfl = null;
+        }
+    }
+
+    private void
+    registerConnReceiver() {
+        // Called with mStateLock held.
+        if (!Util.bitIsSet(mWlOpt, LOCK_WIFI_NETWORK_TASK))
+            return;
+        P.bug(null == mConnReceiver);
+        mConnReceiver = new BroadcastReceiver() {
+            @Override
+            public void
+            onReceive(Context context, Intent intent) {
+                synchronized (mStateLock) {
+                    updateNetWifiLock();
+                }
+            }
+        };
+        AppEnv.getAppContext().registerReceiver(
+                mConnReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    private void
+    unregisterConnReceiver() {
+        // Called with mStateLock held.
+        if (null == mConnReceiver)
+            return;
+        AppEnv.getAppContext().unregisterReceiver(mConnReceiver);
+        mConnReceiver = null;
+    }
+
+    private void
+    onNetTaskRun() {
+        if (1 == mNetRunCnt.incrementAndGet()) {
+            synchronized (mStateLock) {
+                updateNetWifiLock();
+            }
+        }
+    }
+
+    private void
+    onNetTaskDone() {
+        int cnt = mNetRunCnt.decrementAndGet();
+        P.bug(0 <= cnt);
+        if (0 == cnt) {
+            synchronized (mStateLock) {
+                updateNetWifiLock();
+            }
+        }
+    }
+
+    // Called with mStateLock held.
+    private void
+    disarmLinger() {
+        mLingerGen++;
+        if (null != mLingerExpired) {
+            AppEnv.getUiHandler().removeCallbacks(mLingerExpired);
+            mLingerExpired = null;
+        }
+    }
+
+    // Called with mStateLock held.
+    private void
+    disarmMaxHold() {
+        mMaxHoldGen++;
+        if (null != mMaxHoldExpired) {
+            AppEnv.getUiHandler().removeCallbacks(mMaxHoldExpired);
+            mMaxHoldExpired = null;
+        }
+    }
+
+    /**
+     * Make service and locks follow current balance count.
+     * Called with mStateLock held.
+     * Balance count may be changed by other threads while waiting mStateLock.
+     * So, count is read again here instead of trusting value seen by caller.
+     */
+    private void
+    reconcile() {
+        if (0 < mBalanceCnt.get()) {
+            disarmLinger();
+            if (!mActive)
+                activate();
+            else
+                sMtLingerReuse.inc();
+        } else if (mActive) {
+            if (0 < mLingerTime) {
+                disarmLinger();
+                mLingerExpired = new LingerExpired(mLingerGen);
+                AppEnv.getUiHandler().postDelayed(mLingerExpired, mLingerTime);
+            } else
+                deactivate();
+        }
+    }
+
+    private void
+    activate() {
+        P.bug(!mActive);
+        sMtActivate.inc();
+        long tr = Tracer.begin("LifeSupporter.activate");
+        Intent i = new Intent(AppEnv.getAppContext(), mServiceCls);
+        AppEnv.getAppContext().startService(i);
+        getWakeLock();
+        Tracer.end(tr);
+        mAccount.onAcquired();
+        mActive = true;
+        registerConnReceiver();
+        updateNetWifiLock();
+        if (0 < mMaxHoldTime) {
+            disarmMaxHold();
+            mMaxHoldExpired = new MaxHoldExpired(mMaxHoldGen);
+            AppEnv.getUiHandler().postDelayed(mMaxHoldExpired, mMaxHoldTime);
+        }
+    }
+
+    private void
+    deactivate() {
+        if (!mActive)
+            return;
+        sMtDeactivate.inc();
+        long tr = Tracer.begin("LifeSupporter.deactivate");
+        disarmLinger();
+        disarmMaxHold();
+        Intent i = new Intent(AppEnv.getAppContext(), mServiceCls);
+        AppEnv.getAppContext().stopService(i);
+        putWakeLock();
+        Tracer.end(tr);
+        mAccount.onReleased();
+        mActive = false;
+        unregisterConnReceiver();
+        updateNetWifiLock();
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     //
     //
@@ -129,6 +392,7 @@ public class LifeSupporter {
                             int wlopt) {
         mServiceCls = serviceCls;
         mWlOpt = wlopt;
+        mAccount = new LockAccount(serviceCls.getName());
     }
     ///////////////////////////////////////////////////////////////////////////
     //
@@ -142,32 +406,79 @@ public class LifeSupporter {
         return new LifeSupporter(serviceCls, wlopt);
     }
 
+    /**
+     * Accounting of locks held by this LifeSupporter.
+     */
+    @NotNull
+    public LockAccount
+    getLockAccount() {
+        return mAccount;
+    }
+
+    /**
+     * Service and locks are kept for {@code ms} after last task is done.
+     * If new task arrives in this window, service and locks are reused as they are.
+     * This avoids start/stop thrashing with bursty task queue.
+     * @param ms 0 to release immediately (default).
+     */
+    public void
+    setLingerTime(long ms) {
+        P.bug(0 <= ms);
+        mLingerTime = ms;
+    }
+
+    /**
+     * Safety net. Service and locks are forcibly released if they are held for
+     *   {@code ms} continuously - even if tasks are still running.
+     * They are acquired again when task count changes from 0 to 1.
+     * @param ms 0 for no limit (default).
+     */
+    public void
+    setMaxHoldTime(long ms) {
+        P.bug(0 <= ms);
+        mMaxHoldTime = ms;
+    }
+
+    /**
+     * This is thread-safe.
+     */
     public void
     start() {
-        if (DBG) P.v("Enter: balanceCnt: " + mBalanceCnt);
-        P.bug(mBalanceCnt >= 0 && AUtil.isUiThread());
-        if (0 < mBalanceCnt++)
+        int cnt = mBalanceCnt.getAndIncrement();
+        if (DBG) P.v("Enter: balanceCnt: " + cnt);
+        P.bug(cnt >= 0);
+        if (0 < cnt)
             return;
-        Intent i = new Intent(AppEnv.getAppContext(), mServiceCls);
-        AppEnv.getAppContext().startService(i);
-        getWakeLock();
+        // If in linger window, current service and locks are kept.
+        synchronized (mStateLock) {
+            reconcile();
+        }
     }
 
+    /**
+     * This is thread-safe.
+     */
     public void
     stop() {
-        if (DBG) P.v("Enter: balanceCnt: " + mBalanceCnt);
+        int cnt = mBalanceCnt.decrementAndGet();
+        if (DBG) P.v("Enter: balanceCnt: " + cnt);
         // start() and stop() SHOULD be always pair!
-        P.bug(mBalanceCnt > 0 && AUtil.isUiThread());
-        if (0 < --mBalanceCnt)
+        P.bug(cnt >= 0);
+        if (0 < cnt)
             return;
-        Intent i = new Intent(AppEnv.getAppContext(), mServiceCls);
-        AppEnv.getAppContext().stopService(i);
-        putWakeLock();
+        synchronized (mStateLock) {
+            reconcile();
+        }
     }
 
+    /**
+     * Queue events of {@code tm} are handled at {@code evHandler}'s context.
+     * To bound queue of {@code tm}, see {@link AdmissionController}.
+     */
     public static void
     addGuestTaskManager(@NotNull final LifeSupporter lifesup,
-                        @NotNull final TaskManager tm) {
+                        @NotNull final TaskManager tm,
+                        @NotNull HandlerAdapter evHandler) {
         TaskManagerBase.TaskQEventListener listener
             = new TaskManagerBase.TaskQEventListener() {
             @Override
@@ -186,9 +497,15 @@ public class LifeSupporter {
                     if (0 == (szReady + szRun))
                         lifesup.stop();
                     break;
-                case MOVED_TO_RUN: // nothing to do.
+                case MOVED_TO_RUN:
+                    lifesup.mAccount.onTaskRun(task);
+                    if (task instanceof NetworkBound)
+                        lifesup.onNetTaskRun();
                     break;
                 case REMOVED_FROM_RUN:
+                    lifesup.mAccount.onTaskDone(tm, task);
+                    if (task instanceof NetworkBound)
+                        lifesup.onNetTaskDone();
                     if (0 == (szReady + szRun))
                         lifesup.stop();
                     break;
@@ -198,14 +515,27 @@ public class LifeSupporter {
             }
         };
         tm.setTag(lifesup, listener);
-        tm.addTaskQEventListener(AppEnv.getUiHandlerAdapter(), listener);
+        tm.addTaskQEventListener(evHandler, listener);
+    }
+
+    /**
+     * If this is called at owner thread of {@code tm} having Looper, queue events are handled
+     *   at the owner thread. Otherwise, they are handled at UI thread.
+     */
+    public static void
+    addGuestTaskManager(@NotNull LifeSupporter lifesup,
+                        @NotNull TaskManager tm) {
+        Looper looper = Looper.myLooper();
+        HandlerAdapter evHandler = tm.isOwnerThread() && null != looper
+                ? new AHandlerAdapter(new Handler(looper))
+                : AppEnv.getUiHandlerAdapter();
+        addGuestTaskManager(lifesup, tm, evHandler);
     }
 
     public static void
     removeGuestTaskManager(@NotNull LifeSupporter lifesup,
                            @NotNull TaskManager tm) {
-        // Owner of tm should be UI thread to use life supporter.
-        P.bug(AUtil.isUiThread() && tm.isOwnerThread());
+        P.bug(tm.isOwnerThread());
         //noinspection unchecked
         TaskManagerBase.TaskQEventListener listener
                 = (TaskManagerBase.TaskQEventListener)tm.removeTag(lifesup);
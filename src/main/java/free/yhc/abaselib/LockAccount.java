@@ -0,0 +1,230 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib;
+
+import android.os.SystemClock;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import free.yhc.abaselib.metrics.ReportFile;
+import free.yhc.baselib.Logger;
+import free.yhc.baselib.async.TaskManagerBase;
+import free.yhc.baselib.async.TmTask;
+
+/*
+ * Accounting of locks held by LifeSupporter.
+ *
+ * Time is attributed to TmTask class and guest TaskManager by the time task stays in
+ *   run queue of guest TaskManager - LifeSupporter holds locks while there is any task.
+ */
+public class LockAccount {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(LockAccount.class, Logger.LOGLV_DEFAULT);
+
+    private static final String KEY_TASK_PREFIX = "task:";
+    private static final String KEY_TM_PREFIX = "tm:";
+
+    private final String mName;
+    // All below are guarded by 'this'
+    private long mAcquireCnt = 0;
+    private long mTotalHold = 0; // ms
+    private long mMaxHold = 0; // ms
+    private long mHoldStart = -1; // -1 if not held
+    private final IdentityHashMap<TmTask, Long> mRunStart = new IdentityHashMap<>();
+    private final HashMap<String, Long> mAttributed = new HashMap<>();
+
+    public static class Snapshot {
+        public final long acquireCount;
+        public final long totalHoldTime; // ms
+        public final long maxHoldTime; // ms
+        public final boolean held;
+        /**
+         * Key is "task:[TmTask class name]" or "tm:[TaskManager name]". Value is time in ms.
+         * Sorted by time in descending order.
+         */
+        public final List<Map.Entry<String, Long>> attributed;
+
+        Snapshot(long aAcquireCount,
+                 long aTotalHoldTime,
+                 long aMaxHoldTime,
+                 boolean aHeld,
+                 List<Map.Entry<String, Long>> aAttributed) {
+            acquireCount = aAcquireCount;
+            totalHoldTime = aTotalHoldTime;
+            maxHoldTime = aMaxHoldTime;
+            held = aHeld;
+            attributed = aAttributed;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    @NotNull
+    private static String
+    tmName(@NotNull TaskManagerBase tm) {
+        return tm.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(tm));
+    }
+
+    private void
+    attribute(@NotNull String key, long time) {
+        Long v = mAttributed.get(key);
+        mAttributed.put(key, null == v ? time : v + time);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    // Package private - used by LifeSupporter
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    LockAccount(@NotNull String name) {
+        mName = name;
+    }
+
+    synchronized void
+    onAcquired() {
+        P.bug(0 > mHoldStart);
+        mAcquireCnt++;
+        mHoldStart = SystemClock.elapsedRealtime();
+    }
+
+    synchronized void
+    onReleased() {
+        P.bug(0 <= mHoldStart);
+        long held = SystemClock.elapsedRealtime() - mHoldStart;
+        mTotalHold += held;
+        if (held > mMaxHold)
+            mMaxHold = held;
+        mHoldStart = -1;
+    }
+
+    synchronized void
+    onTaskRun(@NotNull TmTask task) {
+        mRunStart.put(task, SystemClock.elapsedRealtime());
+    }
+
+    synchronized void
+    onTaskDone(@NotNull TaskManagerBase tm, @NotNull TmTask task) {
+        Long start = mRunStart.remove(task);
+        if (null == start)
+            return; // Accounting is reset while task is running.
+        long time = SystemClock.elapsedRealtime() - start;
+        attribute(KEY_TASK_PREFIX + task.getClass().getName(), time);
+        attribute(KEY_TM_PREFIX + tmName(tm), time);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    @NotNull
+    public synchronized Snapshot
+    snapshot() {
+        long total = mTotalHold;
+        long max = mMaxHold;
+        if (0 <= mHoldStart) {
+            // Include current holding.
+            long held = SystemClock.elapsedRealtime() - mHoldStart;
+            total += held;
+            if (held > max)
+                max = held;
+        }
+        List<Map.Entry<String, Long>> attributed = new ArrayList<>(mAttributed.entrySet().size());
+        for (Map.Entry<String, Long> e : mAttributed.entrySet())
+            attributed.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+        Collections.sort(attributed, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int
+            compare(Map.Entry<String, Long> e0, Map.Entry<String, Long> e1) {
+                return e1.getValue().compareTo(e0.getValue());
+            }
+        });
+        return new Snapshot(mAcquireCnt, total, max, 0 <= mHoldStart, attributed);
+    }
+
+    /**
+     * Clear accumulated values. Current holding state is kept.
+     */
+    public synchronized void
+    reset() {
+        mAcquireCnt = 0;
+        mTotalHold = 0;
+        mMaxHold = 0;
+        if (0 <= mHoldStart)
+            mHoldStart = SystemClock.elapsedRealtime();
+        mRunStart.clear();
+        mAttributed.clear();
+    }
+
+    /**
+     * Dump snapshot as human-readable text.
+     */
+    public void
+    dump(@NotNull File out) throws IOException {
+        final Snapshot ss = snapshot();
+        ReportFile.write(out, new ReportFile.Writer() {
+            @Override
+            public void
+            write(PrintWriter pw) {
+                pw.println("LockAccount: " + mName);
+                pw.println("acquire count: " + ss.acquireCount);
+                pw.println("total hold time(ms): " + ss.totalHoldTime);
+                pw.println("max hold time(ms): " + ss.maxHoldTime);
+                pw.println("held now: " + ss.held);
+                pw.println("attributed time(ms):");
+                for (Map.Entry<String, Long> e : ss.attributed)
+                    pw.println("    " + e.getValue() + "\t" + e.getKey());
+            }
+        });
+        if (DBG) P.v("LockAccount is dumped: " + out.getAbsolutePath());
+    }
+}
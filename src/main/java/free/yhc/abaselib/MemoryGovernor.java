@@ -0,0 +1,212 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Bundle;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import free.yhc.abaselib.metrics.Metrics;
+import free.yhc.abaselib.metrics.Tracer;
+import free.yhc.abaselib.util.LayoutPool;
+import free.yhc.abaselib.util.ResCache;
+import free.yhc.baselib.Logger;
+
+/*
+ * Give memory back under memory pressure.
+ *
+ * Trim levels from ComponentCallbacks2 are delivered to caches and pools of library, and
+ *   to Trimmables registered by application.
+ * onLowMemory is delivered as TRIM_MEMORY_COMPLETE.
+ * Pools of library stay trimmed - ex. not refilled - until activity is started again or
+ *   lower trim level comes.
+ */
+public class MemoryGovernor {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(MemoryGovernor.class, Logger.LOGLV_DEFAULT);
+
+    private static final CopyOnWriteArrayList<Trimmable> sTrimmables = new CopyOnWriteArrayList<>();
+    // Level of latest trim. 0 if none or recovered.
+    private static volatile int sLastLevel = 0;
+
+    public interface Trimmable {
+        /**
+         * Called at UI thread.
+         * @param level one of ComponentCallbacks2.TRIM_MEMORY_XXX
+         */
+        void onTrimMemory(int level);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private static void
+    trimLibrary(int level) {
+        // Limit is kept until UI becomes visible again or pressure gets lower. See init().
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            // Includes UI_HIDDEN. Pre-inflated views are useless until UI is visible again.
+            LayoutPool.setLimit(0);
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            LayoutPool.setLimit(1);
+        else
+            LayoutPool.setLimit(LayoutPool.NO_LIMIT);
+
+        // Resource values are small and used as soon as UI is back. Keep them unless it's critical.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            ResCache.invalidate();
+    }
+
+    /**
+     * UI becomes visible. Pools trimmed at previous trim are restored.
+     */
+    private static void
+    recover() {
+        if (0 == sLastLevel)
+            return;
+        if (DBG) P.v("recover from trim: " + sLastLevel);
+        sLastLevel = 0;
+        LayoutPool.setLimit(LayoutPool.NO_LIMIT);
+    }
+
+    static void
+    trim(int level) {
+        if (DBG) P.v("trim: " + level);
+        long tr = Tracer.begin("MemoryGovernor.trim");
+        sLastLevel = level;
+        Metrics.counter("memgov.trim").inc();
+        trimLibrary(level);
+        for (Trimmable t : sTrimmables)
+            t.onTrimMemory(level);
+        Tracer.end(tr);
+    }
+
+    /**
+     * Register callbacks to application context.
+     * This is called once at library initialization.
+     */
+    static void
+    init(@NotNull Context appContext) {
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void
+            onTrimMemory(int level) {
+                trim(level);
+            }
+
+            @Override
+            public void
+            onConfigurationChanged(Configuration newConfig) {
+                ResCache.invalidate();
+            }
+
+            @Override
+            public void
+            onLowMemory() {
+                trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        });
+        // There is no ComponentCallbacks2 event for recovery. Starting activity means UI is back.
+        ((Application)appContext.getApplicationContext()).registerActivityLifecycleCallbacks(
+                new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void
+            onActivityStarted(Activity activity) {
+                recover();
+            }
+
+            @Override
+            public void
+            onActivityCreated(Activity activity, Bundle savedInstanceState) { }
+
+            @Override
+            public void
+            onActivityResumed(Activity activity) { }
+
+            @Override
+            public void
+            onActivityPaused(Activity activity) { }
+
+            @Override
+            public void
+            onActivityStopped(Activity activity) { }
+
+            @Override
+            public void
+            onActivitySaveInstanceState(Activity activity, Bundle outState) { }
+
+            @Override
+            public void
+            onActivityDestroyed(Activity activity) { }
+        });
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * Trimmable is strongly referenced until it is unregistered.
+     */
+    public static void
+    register(@NotNull Trimmable trimmable) {
+        sTrimmables.addIfAbsent(trimmable);
+    }
+
+    public static void
+    unregister(@NotNull Trimmable trimmable) {
+        sTrimmables.remove(trimmable);
+    }
+
+    /**
+     * @return level of latest trim. 0 if memory is never trimmed or UI is visible again after it.
+     */
+    public static int
+    getLastTrimLevel() {
+        return sLastLevel;
+    }
+}
@@ -0,0 +1,142 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free histogram having fixed power-of-2 buckets.
+ *
+ * Bucket 0 is for value 0, and bucket i (i > 0) is for values in [2^(i-1), 2^i).
+ * Unit of value is decided by user - ex. use suffix of metric name like ".us" or ".ms".
+ * Recording is just a few atomic operations without allocation.
+ *
+ * This is pure-Java. DO NOT use Android framework here.
+ */
+public class Histogram {
+    public static final int NR_BUCKETS = 64;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(NR_BUCKETS);
+    private final StripedCounter mSum = new StripedCounter();
+    private final AtomicLong mMax = new AtomicLong(0);
+
+    public static class Snapshot {
+        public final long count;
+        public final long sum;
+        public final long max;
+        public final long[] buckets;
+
+        Snapshot(long aCount, long aSum, long aMax, long[] aBuckets) {
+            count = aCount;
+            sum = aSum;
+            max = aMax;
+            buckets = aBuckets;
+        }
+
+        public long
+        mean() {
+            return 0 == count ? 0 : sum / count;
+        }
+
+        /**
+         * @param p percentile in [0, 100]
+         * @return upper bound of bucket where the percentile is in. 0 if histogram is empty.
+         */
+        public long
+        percentile(double p) {
+            if (0 == count)
+                return 0;
+            long rank = (long)Math.ceil(count * p / 100.0);
+            long acc = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                acc += buckets[i];
+                if (acc >= rank)
+                    return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    static int
+    bucketIndex(long v) {
+        return v <= 0 ? 0 : Math.min(NR_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v));
+    }
+
+    /**
+     * @return inclusive upper bound of bucket.
+     */
+    static long
+    upperBound(int bucket) {
+        return 0 == bucket ? 0
+                : bucket >= NR_BUCKETS - 1 ? Long.MAX_VALUE
+                : (1L << bucket) - 1;
+    }
+
+    public void
+    record(long v) {
+        mBuckets.getAndIncrement(bucketIndex(v));
+        mSum.add(v);
+        long max;
+        while (v > (max = mMax.get())
+               && !mMax.compareAndSet(max, v)) { }
+    }
+
+    public Snapshot
+    snapshot() {
+        long[] buckets = new long[NR_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < NR_BUCKETS; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        return new Snapshot(count, mSum.get(), mMax.get(), buckets);
+    }
+
+    public void
+    reset() {
+        for (int i = 0; i < NR_BUCKETS; i++)
+            mBuckets.set(i, 0);
+        mSum.reset();
+        mMax.set(0);
+    }
+}
@@ -0,0 +1,327 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.metrics;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Printer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import free.yhc.abaselib.AppEnv;
+import free.yhc.baselib.Logger;
+
+/*
+ * Watchdog measuring dispatch time of each message at UI looper.
+ *
+ * Message logging of UI looper is used to know when each message starts and ends.
+ * If a message is still running after threshold, stack of UI thread is sampled at
+ *   background thread. Slow messages are aggregated by signature of the sample.
+ * Signature is the innermost frame that is application code or library entry point doing
+ *   expensive work - ex. AUtil.inflateLayout, ImgUtil.decodeBitmap, DialogTask.createDialog.
+ *   See signatureOf().
+ *
+ * NOTE: Looper has only one message logging printer. Printer set by others is replaced.
+ */
+public class JankWatchdog {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(JankWatchdog.class, Logger.LOGLV_DEFAULT);
+
+    private static final String LIB_PACKAGE_PREFIX = "free.yhc.abaselib.";
+    // Library functions doing expensive work at the caller's context.
+    private static final String[] LIB_ENTRY_POINTS = {
+            "free.yhc.abaselib.util.AUtil.inflateLayout",
+            "free.yhc.abaselib.util.ImgUtil.decodeBitmap",
+            "free.yhc.abaselib.util.ImgUtil.decodeBitmapExact",
+            "free.yhc.abaselib.util.ImgUtil.decodeBitmapCached",
+            "free.yhc.abaselib.util.ImgUtil.scaleBitmap",
+            "free.yhc.abaselib.util.ImgUtil.compressToJpeg",
+            "free.yhc.abaselib.util.PixelCache.get",
+            "free.yhc.abaselib.util.PixelCache.put",
+            "free.yhc.abaselib.ux.DialogTask.createDialog",
+            "free.yhc.abaselib.util.ToastDispatcher.pump",
+    };
+    // Frames of these are neither library nor application code.
+    private static final String[] PLATFORM_PREFIXES = {
+            "android.",
+            "com.android.",
+            "dalvik.",
+            "java.",
+            "javax.",
+            "libcore.",
+            "sun.",
+    };
+    private static final String SIG_UNKNOWN = "(not sampled)";
+
+    private static final StripedCounter sMtSlow = Metrics.counter("ui.msg.slow");
+    private static final Histogram sMtSlowTime = Metrics.histogram("ui.msg.slow.time.ms");
+
+    private static final Object sLock = new Object();
+    // Guarded by sLock
+    private static JankWatchdog sInstance = null;
+
+    private final long mThreshold; // ms
+    private final Looper mUiLooper;
+    private final Thread mUiThread;
+    private final HandlerThread mSamplerThread;
+    private final Handler mSampler;
+
+    // Used only at UI thread.
+    private long mMsgStart = -1;
+    // Increased at every message dispatching.
+    private volatile long mMsgSeq = 0;
+    // Sample for the message whose sequence is mSampleSeq.
+    private volatile long mSampleSeq = -1;
+    private volatile String mSample = null;
+
+    // Guarded by mStats
+    private final HashMap<String, Stat> mStats = new HashMap<>();
+
+    public static class Stat {
+        public final String signature;
+        public long count = 0;
+        public long totalTime = 0; // ms
+        public long maxTime = 0; // ms
+
+        Stat(String aSignature) {
+            signature = aSignature;
+        }
+
+        Stat(Stat s) {
+            signature = s.signature;
+            count = s.count;
+            totalTime = s.totalTime;
+            maxTime = s.maxTime;
+        }
+    }
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void
+        run() {
+            long seq = mMsgSeq;
+            mSample = signatureOf(mUiThread.getStackTrace());
+            mSampleSeq = seq;
+        }
+    };
+
+    private final Printer mPrinter = new Printer() {
+        @Override
+        public void
+        println(String x) {
+            // See Looper.loop() for format of logging.
+            if (x.startsWith(">")) {
+                mMsgSeq++;
+                mMsgStart = SystemClock.uptimeMillis();
+                mSampler.postDelayed(mSampleRunnable, mThreshold);
+            } else if (x.startsWith("<") && 0 <= mMsgStart) {
+                mSampler.removeCallbacks(mSampleRunnable);
+                long time = SystemClock.uptimeMillis() - mMsgStart;
+                mMsgStart = -1;
+                if (time >= mThreshold)
+                    onSlowMessage(time);
+            }
+        }
+    };
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    @NonNull
+    private static String
+    frameName(@NonNull StackTraceElement e) {
+        return e.getClassName() + "." + e.getMethodName();
+    }
+
+    private static boolean
+    isEntryPoint(@NonNull StackTraceElement e) {
+        String name = frameName(e);
+        for (String ep : LIB_ENTRY_POINTS) {
+            if (ep.equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean
+    isAppFrame(@NonNull StackTraceElement e) {
+        String cls = e.getClassName();
+        if (cls.startsWith(LIB_PACKAGE_PREFIX))
+            return false;
+        for (String prefix : PLATFORM_PREFIXES) {
+            if (cls.startsWith(prefix))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Library dispatchers - ex. HandlerExecutor, AUtil.runOnHandlerContext, DialogTask
+     *   callbacks - are outer frames of application code. So, they are never blamed.
+     * Signature is the innermost frame among
+     *   - library entry points doing expensive work (LIB_ENTRY_POINTS), and
+     *   - application frames.
+     * Top frame is used if there is neither of them.
+     */
+    @NonNull
+    static String
+    signatureOf(@NonNull StackTraceElement[] st) {
+        if (0 == st.length)
+            return SIG_UNKNOWN;
+        // Innermost frame is at the beginning.
+        for (StackTraceElement e : st) {
+            if (isEntryPoint(e) || isAppFrame(e))
+                return frameName(e);
+        }
+        return frameName(st[0]);
+    }
+
+    private void
+    onSlowMessage(long time) {
+        String sig = mMsgSeq == mSampleSeq ? mSample : SIG_UNKNOWN;
+        sMtSlow.inc();
+        sMtSlowTime.record(time);
+        synchronized (mStats) {
+            Stat s = mStats.get(sig);
+            if (null == s) {
+                s = new Stat(sig);
+                mStats.put(sig, s);
+            }
+            s.count++;
+            s.totalTime += time;
+            if (time > s.maxTime)
+                s.maxTime = time;
+        }
+        if (DBG) P.w("Slow UI message(" + time + "ms): " + sig);
+    }
+
+    private JankWatchdog(long threshold) {
+        mThreshold = threshold;
+        mUiLooper = AppEnv.getUiHandler().getLooper();
+        mUiThread = AppEnv.getUiThread();
+        mSamplerThread = new HandlerThread("JankWatchdog", Process.THREAD_PRIORITY_BACKGROUND);
+        mSamplerThread.start();
+        mSampler = new Handler(mSamplerThread.getLooper());
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * Start watching UI looper. Report of previous watchdog is discarded.
+     * @param threshold message taking this time(ms) or more is regarded as slow.
+     */
+    public static void
+    start(long threshold) {
+        P.bug(0 < threshold);
+        synchronized (sLock) {
+            stop();
+            sInstance = new JankWatchdog(threshold);
+            sInstance.mUiLooper.setMessageLogging(sInstance.mPrinter);
+        }
+    }
+
+    public static void
+    stop() {
+        synchronized (sLock) {
+            if (null == sInstance)
+                return;
+            sInstance.mUiLooper.setMessageLogging(null);
+            sInstance.mSamplerThread.quit();
+            sInstance = null;
+        }
+    }
+
+    /**
+     * @return slow-message stats sorted by total time in descending order.
+     *         Empty list if watchdog is not running.
+     */
+    @NonNull
+    public static List<Stat>
+    getReport() {
+        JankWatchdog wd;
+        synchronized (sLock) {
+            wd = sInstance;
+        }
+        List<Stat> l = new ArrayList<>();
+        if (null == wd)
+            return l;
+        synchronized (wd.mStats) {
+            for (Stat s : wd.mStats.values())
+                l.add(new Stat(s));
+        }
+        Collections.sort(l, new Comparator<Stat>() {
+            @Override
+            public int
+            compare(Stat s0, Stat s1) {
+                return s0.totalTime < s1.totalTime ? 1
+                        : s0.totalTime > s1.totalTime ? -1
+                        : 0;
+            }
+        });
+        return l;
+    }
+
+    public static void
+    dump(@NonNull File out) throws IOException {
+        final List<Stat> report = getReport();
+        ReportFile.write(out, new ReportFile.Writer() {
+            @Override
+            public void
+            write(PrintWriter pw) {
+                pw.println("count\ttotal(ms)\tmax(ms)\tsignature");
+                for (Stat s : report)
+                    pw.println(s.count + "\t" + s.totalTime + "\t" + s.maxTime + "\t" + s.signature);
+            }
+        });
+    }
+}
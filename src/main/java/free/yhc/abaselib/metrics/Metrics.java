@@ -0,0 +1,153 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Library-wide registry of metrics.
+ *
+ * Metric is created at first lookup and never removed.
+ * Lookup is a hash-map access. So, hot paths should keep metric object at static field
+ *   instead of looking up every time.
+ * Recording metric is cheap enough to be left in release build.
+ *
+ * This is pure-Java. DO NOT use Android framework here.
+ */
+public class Metrics {
+    private static final ConcurrentHashMap<String, StripedCounter> sCounters
+            = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> sHistograms
+            = new ConcurrentHashMap<>();
+
+    public static class Snapshot {
+        public final SortedMap<String, Long> counters;
+        public final SortedMap<String, Histogram.Snapshot> histograms;
+
+        Snapshot(SortedMap<String, Long> aCounters,
+                 SortedMap<String, Histogram.Snapshot> aHistograms) {
+            counters = aCounters;
+            histograms = aHistograms;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * @return current time in micro-seconds. Only for measuring elapsed time.
+     */
+    public static long
+    nowUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    public static StripedCounter
+    counter(String name) {
+        StripedCounter c = sCounters.get(name);
+        if (null != c)
+            return c;
+        StripedCounter nc = new StripedCounter();
+        c = sCounters.putIfAbsent(name, nc);
+        return null == c ? nc : c;
+    }
+
+    public static Histogram
+    histogram(String name) {
+        Histogram h = sHistograms.get(name);
+        if (null != h)
+            return h;
+        Histogram nh = new Histogram();
+        h = sHistograms.putIfAbsent(name, nh);
+        return null == h ? nh : h;
+    }
+
+    public static Snapshot
+    snapshot() {
+        SortedMap<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, StripedCounter> e : sCounters.entrySet())
+            counters.put(e.getKey(), e.getValue().get());
+        SortedMap<String, Histogram.Snapshot> histograms = new TreeMap<>();
+        for (Map.Entry<String, Histogram> e : sHistograms.entrySet())
+            histograms.put(e.getKey(), e.getValue().snapshot());
+        return new Snapshot(counters, histograms);
+    }
+
+    public static void
+    reset() {
+        for (StripedCounter c : sCounters.values())
+            c.reset();
+        for (Histogram h : sHistograms.values())
+            h.reset();
+    }
+
+    /**
+     * Dump snapshot as human-readable text.
+     */
+    public static void
+    dump(File out) throws IOException {
+        final Snapshot ss = snapshot();
+        ReportFile.write(out, new ReportFile.Writer() {
+            @Override
+            public void
+            write(PrintWriter pw) {
+                pw.println("[counters]");
+                for (Map.Entry<String, Long> e : ss.counters.entrySet())
+                    pw.println(e.getKey() + " " + e.getValue());
+                pw.println("[histograms]");
+                for (Map.Entry<String, Histogram.Snapshot> e : ss.histograms.entrySet()) {
+                    Histogram.Snapshot h = e.getValue();
+                    pw.println(e.getKey()
+                               + " count=" + h.count
+                               + " mean=" + h.mean()
+                               + " p50=" + h.percentile(50)
+                               + " p90=" + h.percentile(90)
+                               + " p99=" + h.percentile(99)
+                               + " max=" + h.max);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,99 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free counter striped over threads.
+ *
+ * Each thread adds to its own stripe selected by thread id. So, threads rarely contend.
+ * Stripes are padded to be at different cache lines.
+ * Reading value(sum of stripes) is relatively expensive. It is for snapshots, not for hot paths.
+ *
+ * This is pure-Java. DO NOT use Android framework here.
+ */
+public class StripedCounter {
+    // 8 longs = 64 bytes = usual size of cache line.
+    private static final int PAD_SHIFT = 3;
+    private static final int NR_STRIPES;
+
+    static {
+        int n = 1;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        while (n < cpus * 2)
+            n <<= 1;
+        NR_STRIPES = n;
+    }
+
+    private final AtomicLongArray mCells = new AtomicLongArray(NR_STRIPES << PAD_SHIFT);
+
+    private static int
+    cellIndex() {
+        long id = Thread.currentThread().getId();
+        // Spread thread ids having same lower bits.
+        int h = (int)(id ^ (id >>> 16)) * 0x9E3779B9;
+        return ((h >>> 16) & (NR_STRIPES - 1)) << PAD_SHIFT;
+    }
+
+    public void
+    add(long v) {
+        mCells.getAndAdd(cellIndex(), v);
+    }
+
+    public void
+    inc() {
+        mCells.getAndIncrement(cellIndex());
+    }
+
+    public long
+    get() {
+        long sum = 0;
+        for (int i = 0; i < NR_STRIPES; i++)
+            sum += mCells.get(i << PAD_SHIFT);
+        return sum;
+    }
+
+    /**
+     * Value added while resetting may or may not be cleared.
+     */
+    public void
+    reset() {
+        for (int i = 0; i < NR_STRIPES; i++)
+            mCells.set(i << PAD_SHIFT, 0);
+    }
+}
@@ -0,0 +1,243 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.metrics;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import free.yhc.abaselib.AppEnv;
+
+/*
+ * Trace sections of library hot paths.
+ *
+ * When enabled, each section is
+ *   - passed to android.os.Trace (visible at systrace / Perfetto), and
+ *   - recorded at in-process ring buffer that can be exported as Chrome trace-event JSON.
+ * When disabled, cost is one volatile read per section.
+ *
+ * Usage:
+ *     long t = Tracer.begin("name");
+ *     try { ... } finally { Tracer.end(t); }
+ * Section SHOULD begin and end at same thread.
+ */
+public class Tracer {
+    public static final long NOT_TRACED = Long.MIN_VALUE;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static volatile boolean sEnabled = false;
+
+    private static final Object sLock = new Object();
+    // All below are guarded by sLock
+    private static int sCapacity = DEFAULT_CAPACITY;
+    private static String[] sNames = null;
+    private static long[] sTs = null; // us
+    private static long[] sDur = null; // us
+    private static int[] sTids = null;
+    private static long sSeq = 0; // number of events recorded so far.
+    // Names of sections begun but not ended yet. Per thread.
+    private static final ThreadLocal<String[]> sStack = new ThreadLocal<String[]>() {
+        @Override
+        protected String[]
+        initialValue() {
+            return new String[64];
+        }
+    };
+    private static final ThreadLocal<int[]> sDepth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[]
+        initialValue() {
+            return new int[1];
+        }
+    };
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private static long
+    nowUs() {
+        return SystemClock.elapsedRealtimeNanos() / 1000;
+    }
+
+    private static void
+    appendJsonString(@NonNull StringBuilder sb, @NonNull String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ('"' == c || '\\' == c)
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int)c));
+            else
+                sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * Enabling clears ring buffer.
+     */
+    public static void
+    setEnabled(boolean enabled) {
+        synchronized (sLock) {
+            if (enabled && !sEnabled) {
+                sNames = new String[sCapacity];
+                sTs = new long[sCapacity];
+                sDur = new long[sCapacity];
+                sTids = new int[sCapacity];
+                sSeq = 0;
+            }
+            sEnabled = enabled;
+        }
+    }
+
+    public static boolean
+    isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Applied at next enabling.
+     */
+    public static void
+    setCapacity(int capacity) {
+        if (0 >= capacity)
+            throw new IllegalArgumentException("capacity: " + capacity);
+        synchronized (sLock) {
+            sCapacity = capacity;
+        }
+    }
+
+    /**
+     * @param name SHOULD be constant string. It is kept at ring buffer as it is.
+     * @return token passed to {@link #end(long)}. {@link #NOT_TRACED} if disabled.
+     */
+    public static long
+    begin(@NonNull String name) {
+        if (!sEnabled)
+            return NOT_TRACED;
+        int[] depth = sDepth.get();
+        String[] stack = sStack.get();
+        if (depth[0] >= stack.length)
+            // Too deep. Ignore it.
+            return NOT_TRACED;
+        stack[depth[0]++] = name;
+        Trace.beginSection(name);
+        return nowUs();
+    }
+
+    public static void
+    end(long token) {
+        if (NOT_TRACED == token)
+            return;
+        long dur = nowUs() - token;
+        Trace.endSection();
+        int[] depth = sDepth.get();
+        String name = sStack.get()[--depth[0]];
+        int tid = Process.myTid();
+        synchronized (sLock) {
+            if (null == sNames)
+                return;
+            int i = (int)(sSeq++ % sNames.length);
+            sNames[i] = name;
+            sTs[i] = token;
+            sDur[i] = dur;
+            sTids[i] = tid;
+        }
+    }
+
+    /**
+     * Export recorded events as Chrome trace-event JSON.
+     */
+    public static void
+    export(@NonNull File out) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        int pid = Process.myPid();
+        synchronized (sLock) {
+            sb.append("{\"traceEvents\":[");
+            if (null != sNames) {
+                long n = Math.min(sSeq, sNames.length);
+                for (long s = sSeq - n; s < sSeq; s++) {
+                    int i = (int)(s % sNames.length);
+                    if (s != sSeq - n)
+                        sb.append(',');
+                    sb.append("\n{\"name\":");
+                    appendJsonString(sb, sNames[i]);
+                    sb.append(",\"cat\":\"abaselib\",\"ph\":\"X\",\"ts\":").append(sTs[i])
+                      .append(",\"dur\":").append(sDur[i])
+                      .append(",\"pid\":").append(pid)
+                      .append(",\"tid\":").append(sTids[i])
+                      .append('}');
+                }
+            }
+            sb.append("\n],\"displayTimeUnit\":\"ms\"}\n");
+        }
+        ReportFile.write(out, new ReportFile.Writer() {
+            @Override
+            public void
+            write(PrintWriter pw) {
+                pw.print(sb);
+            }
+        });
+    }
+
+    /**
+     * Export recorded events to new file at {@link AppEnv#getTmpDir()}.
+     * @return exported file.
+     */
+    @NonNull
+    public static File
+    export() throws IOException {
+        if (null == AppEnv.getTmpDir())
+            throw new IOException("Temp directory is NOT set");
+        File out = new File(AppEnv.getTmpDir(), "trace-" + System.currentTimeMillis() + ".json");
+        export(out);
+        return out;
+    }
+}
@@ -49,6 +49,8 @@ import java.io.File;
 import java.io.IOException;
 
 import free.yhc.abaselib.AppEnv;
+import free.yhc.abaselib.metrics.Metrics;
+import free.yhc.abaselib.metrics.StripedCounter;
 import free.yhc.baselib.Logger;
 
 /*
@@ -58,6 +60,10 @@ public class AUtil {
     private static final boolean DBG = Logger.DBG_DEFAULT;
     private static final Logger P = Logger.create(AUtil.class, Logger.LOGLV_DEFAULT);
 
+    private static final StripedCounter sMtRunInline = Metrics.counter("handler.run.inline");
+    private static final StripedCounter sMtRunPost = Metrics.counter("handler.run.post");
+    private static final StripedCounter sMtRunPostUi = Metrics.counter("handler.run.post.ui");
+
     ///////////////////////////////////////////////////////////////////////////
     //
     //
@@ -75,7 +81,7 @@ public class AUtil {
 
     public static boolean
     isUiThread(@NonNull Thread thread) {
-        return isHandlerContext(AppEnv.getUiHandler(), thread);
+        return AppEnv.getUiThread() == thread;
     }
 
     public static boolean
@@ -94,15 +100,30 @@ public class AUtil {
     public static void
     runOnHandlerContext(@NonNull Handler h,
                         @NonNull Runnable r) {
-        if (h.getLooper().getThread() == Thread.currentThread())
+        Thread t = h.getLooper().getThread();
+        if (t == Thread.currentThread()) {
+            sMtRunInline.inc();
             r.run();
-        else
+        } else {
+            sMtRunPost.inc();
+            if (isUiThread(t))
+                sMtRunPostUi.inc();
             h.post(r);
+        }
     }
 
+    /**
+     * If {@code root} is null and pre-inflated view of {@code layout} is available at
+     *   {@link LayoutPool}, pooled view is returned.
+     */
     @NonNull
     public static View
     inflateLayout(int layout, ViewGroup root) {
+        if (null == root) {
+            View v = LayoutPool.obtain(layout);
+            if (null != v)
+                return v;
+        }
         LayoutInflater inflater = (LayoutInflater)AppEnv.getAppContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         return inflater.inflate(layout, root);
     }
@@ -119,21 +140,27 @@ public class AUtil {
         return AppEnv.getAppContext().getResources();
     }
 
+    /**
+     * Value is cached. See {@link ResCache}.
+     */
     @NonNull
     public static String
     getResString(int id) {
-        return getResources().getString(id);
+        return ResCache.getString(id);
     }
 
+    /**
+     * Value is cached. See {@link ResCache}.
+     */
     @NonNull
     public static CharSequence
     getResText(int id) {
-        return getResources().getText(id);
+        return ResCache.getText(id);
     }
 
     public static int
     dpToPx(int dp) {
-        return (int) (dp * AppEnv.getAppContext().getResources().getDisplayMetrics().density);
+        return (int) (dp * ResCache.getDensity());
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -146,10 +173,15 @@ public class AUtil {
     createTempFile() throws IOException {
         if (null == AppEnv.getTmpDir())
             throw new IOException("Temp directory is NOT set");
-        return File.createTempFile(
-                AppEnv.getAppContext().getPackageName() + android.os.Process.myPid(),
-                null,
-                AppEnv.getTmpDir());
+        long guard = UiIoGuard.enter("AUtil.createTempFile");
+        try {
+            return File.createTempFile(
+                    AppEnv.getAppContext().getPackageName() + android.os.Process.myPid(),
+                    null,
+                    AppEnv.getTmpDir());
+        } finally {
+            UiIoGuard.exit("AUtil.createTempFile", guard);
+        }
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,115 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import free.yhc.baselib.Logger;
+
+/*
+ * Shared pool of reusable worker threads for foreground jobs - ex. DialogTask.
+ *
+ * Job is NEVER queued.
+ * If all pooled workers are busy, job runs at brand-new thread - as if there is no pool.
+ * So, foreground job never waits other jobs including jobs of TaskManager.
+ */
+public class ForegroundWorkerPool {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(ForegroundWorkerPool.class, Logger.LOGLV_DEFAULT);
+
+    private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final long KEEP_ALIVE_TIME = 30; // seconds
+
+    private static final AtomicInteger sThreadSeq = new AtomicInteger(0);
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        @Override
+        public Thread
+        newThread(@NonNull final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void
+                run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                    r.run();
+                }
+            }, "FgWorker-" + sThreadSeq.incrementAndGet());
+        }
+    };
+
+    private static final RejectedExecutionHandler sOverflowHandler = new RejectedExecutionHandler() {
+        @Override
+        public void
+        rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (DBG) P.v("All workers are busy. Run at new thread");
+            sThreadFactory.newThread(r).start();
+        }
+    };
+
+    private static final ThreadPoolExecutor sPool;
+
+    static {
+        sPool = new ThreadPoolExecutor(
+                POOL_SIZE,
+                POOL_SIZE,
+                KEEP_ALIVE_TIME,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                sThreadFactory,
+                sOverflowHandler);
+        // Idle app should not keep threads.
+        sPool.allowCoreThreadTimeOut(true);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    public static void
+    execute(@NonNull Runnable r) {
+        sPool.execute(r);
+    }
+}
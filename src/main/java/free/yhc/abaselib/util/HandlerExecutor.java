@@ -0,0 +1,369 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import free.yhc.baselib.Logger;
+
+/*
+ * ExecutorService running jobs at Handler's context.
+ *
+ * Submitted jobs are queued at executor-side queue, and only one message is posted to Handler
+ *   for a batch of jobs. So, submitting lots of jobs in a short time doesn't flood Handler's
+ *   message queue.
+ * Thread of Handler is cached at construction time. So, thread-affinity check is just a
+ *   reference comparison.
+ */
+public class HandlerExecutor extends AbstractExecutorService {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(HandlerExecutor.class, Logger.LOGLV_DEFAULT);
+
+    // Maximum number of jobs run by one Handler message.
+    // Other messages in Looper should not be starved by this executor.
+    public static final int DEFAULT_BATCH_LIMIT = 64;
+
+    private final Handler mHandler;
+    private final Thread mThread;
+    private final int mBatchLimit;
+    private final ConcurrentLinkedQueue<Runnable> mQ = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mDrainPosted = new AtomicBoolean(false);
+    // Number of jobs accepted but not finished yet.
+    private final AtomicInteger mPending = new AtomicInteger(0);
+    private final Object mTermLock = new Object();
+    private volatile boolean mShutdown = false;
+
+    private final Runnable mDrainer = new Runnable() {
+        @Override
+        public void
+        run() {
+            // Clear flag BEFORE polling. Jobs enqueued after this point post new message.
+            mDrainPosted.set(false);
+            int n = mBatchLimit;
+            try {
+                Runnable r;
+                while (0 < n-- && null != (r = mQ.poll())) {
+                    try {
+                        r.run();
+                    } finally {
+                        onJobDone();
+                    }
+                }
+            } finally {
+                if (!mQ.isEmpty())
+                    scheduleDrain();
+            }
+        }
+    };
+
+    /**
+     * Lightweight future run at Handler's context.
+     * Handler thread is never interrupted. So, {@code mayInterruptIfRunning} is ignored.
+     */
+    private static class HandlerFuture<V> implements RunnableFuture<V> {
+        private static final int ST_NEW = 0;
+        private static final int ST_RUNNING = 1;
+        private static final int ST_DONE = 2;
+        private static final int ST_CANCELLED = 3;
+
+        private final Callable<V> mCallable;
+        private final Runnable mRunnable;
+        private final V mRunnableResult;
+        // Guarded by 'this'
+        private int mState = ST_NEW;
+        private V mResult = null;
+        private Throwable mEx = null;
+
+        HandlerFuture(@NonNull Callable<V> callable) {
+            mCallable = callable;
+            mRunnable = null;
+            mRunnableResult = null;
+        }
+
+        HandlerFuture(@NonNull Runnable runnable, V result) {
+            mCallable = null;
+            mRunnable = runnable;
+            mRunnableResult = result;
+        }
+
+        @Override
+        public void
+        run() {
+            synchronized (this) {
+                if (ST_NEW != mState)
+                    return;
+                mState = ST_RUNNING;
+            }
+            V r = null;
+            Throwable ex = null;
+            try {
+                if (null != mCallable)
+                    r = mCallable.call();
+                else {
+                    //noinspection ConstantConditions
+                    mRunnable.run();
+                    r = mRunnableResult;
+                }
+            } catch (Throwable e) {
+                ex = e;
+            }
+            synchronized (this) {
+                mResult = r;
+                mEx = ex;
+                mState = ST_DONE;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public synchronized boolean
+        cancel(boolean mayInterruptIfRunning) {
+            if (ST_NEW != mState)
+                return false;
+            mState = ST_CANCELLED;
+            notifyAll();
+            return true;
+        }
+
+        @Override
+        public synchronized boolean
+        isCancelled() {
+            return ST_CANCELLED == mState;
+        }
+
+        @Override
+        public synchronized boolean
+        isDone() {
+            return ST_DONE == mState || ST_CANCELLED == mState;
+        }
+
+        private V
+        report() throws ExecutionException {
+            if (ST_CANCELLED == mState)
+                throw new CancellationException();
+            if (null != mEx)
+                throw new ExecutionException(mEx);
+            return mResult;
+        }
+
+        @Override
+        public synchronized V
+        get() throws InterruptedException, ExecutionException {
+            while (!isDone())
+                wait();
+            return report();
+        }
+
+        @Override
+        public synchronized V
+        get(long timeout, @NonNull TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long remain = unit.toNanos(timeout);
+            long deadline = System.nanoTime() + remain;
+            while (!isDone()) {
+                if (remain <= 0)
+                    throw new TimeoutException();
+                TimeUnit.NANOSECONDS.timedWait(this, remain);
+                remain = deadline - System.nanoTime();
+            }
+            return report();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private void
+    scheduleDrain() {
+        if (mDrainPosted.compareAndSet(false, true))
+            mHandler.post(mDrainer);
+    }
+
+    private void
+    onJobDone() {
+        if (0 == mPending.decrementAndGet() && mShutdown) {
+            synchronized (mTermLock) {
+                mTermLock.notifyAll();
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    @Override
+    protected <T> RunnableFuture<T>
+    newTaskFor(Runnable runnable, T value) {
+        return new HandlerFuture<>(runnable, value);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T>
+    newTaskFor(Callable<T> callable) {
+        return new HandlerFuture<>(callable);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    public HandlerExecutor(@NonNull Handler handler, int batchLimit) {
+        P.bug(0 < batchLimit);
+        mHandler = handler;
+        mThread = handler.getLooper().getThread();
+        mBatchLimit = batchLimit;
+    }
+
+    public HandlerExecutor(@NonNull Handler handler) {
+        this(handler, DEFAULT_BATCH_LIMIT);
+    }
+
+    @NonNull
+    public Handler
+    getHandler() {
+        return mHandler;
+    }
+
+    public boolean
+    isHandlerContext(@NonNull Thread thread) {
+        return mThread == thread;
+    }
+
+    public boolean
+    isHandlerContext() {
+        return mThread == Thread.currentThread();
+    }
+
+    /**
+     * Run {@code r} immediately if caller is at Handler's context and there is no pending job.
+     * Otherwise, it is queued as {@link #execute(Runnable)}.
+     * Ordering among jobs of this executor is always preserved.
+     */
+    public void
+    runOnContext(@NonNull Runnable r) {
+        if (isHandlerContext() && 0 == mPending.get() && !mShutdown)
+            r.run();
+        else
+            execute(r);
+    }
+
+    @Override
+    public void
+    execute(@NonNull Runnable r) {
+        if (mShutdown)
+            throw new RejectedExecutionException("HandlerExecutor is shut down");
+        mPending.incrementAndGet();
+        mQ.offer(r);
+        scheduleDrain();
+    }
+
+    @Override
+    public void
+    shutdown() {
+        mShutdown = true;
+        if (0 == mPending.get()) {
+            synchronized (mTermLock) {
+                mTermLock.notifyAll();
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<Runnable>
+    shutdownNow() {
+        mShutdown = true;
+        List<Runnable> l = new ArrayList<>();
+        Runnable r;
+        while (null != (r = mQ.poll())) {
+            l.add(r);
+            onJobDone();
+        }
+        if (DBG) P.v("shutdownNow: " + l.size() + " jobs are not run");
+        return l;
+    }
+
+    @Override
+    public boolean
+    isShutdown() {
+        return mShutdown;
+    }
+
+    @Override
+    public boolean
+    isTerminated() {
+        return mShutdown && 0 == mPending.get();
+    }
+
+    @Override
+    public boolean
+    awaitTermination(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        // Waiting at Handler's context never ends.
+        P.bug(!isHandlerContext());
+        long remain = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remain;
+        synchronized (mTermLock) {
+            while (!isTerminated()) {
+                if (remain <= 0)
+                    return false;
+                TimeUnit.NANOSECONDS.timedWait(mTermLock, remain);
+                remain = deadline - System.nanoTime();
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+/*
+ * Geometry used at image decoding.
+ *
+ * This is pure-Java. DO NOT use Android framework here.
+ */
+public class ImgGeom {
+    /**
+     * See {@link ImgUtil#adjustFixedRatio(int[], boolean, int, int, int, int)}.
+     * {@code width} and {@code height} SHOULD be > 0.
+     */
+    public static boolean
+    adjustFixedRatio(int[] out, boolean scale,
+                     int boundW, int boundH, int width, int height) {
+        // Check size of picture..
+        float rw = (float) boundW / (float) width; // width ratio
+        float rh = (float) boundH / (float) height; // height ratio
+
+        float ratio = (rw > rh) ? rh : rw; // choose minimum
+        if (!scale && ratio >= 1.0f) {
+            out[0] = width;
+            out[1] = height;
+            return false;
+        } else {
+            // Scaling or shrinking
+            // integer-type-casting(rounding down) guarantees that value cannot
+            // be greater than bound!!
+            out[0] = (int)(ratio * width);
+            out[1] = (int)(ratio * height);
+            return true;
+        }
+    }
+
+    /**
+     * Largest power-of-2 sample size keeping sampled width >= {@code dstWidth}.
+     * (Sampling is based on width.)
+     * {@code dstWidth} SHOULD be > 0.
+     */
+    public static int
+    computeSampleSize(int srcWidth, int dstWidth) {
+        int sampleSize = 1;
+        while (1 < srcWidth / (dstWidth * sampleSize))
+            sampleSize *= 2;
+        return sampleSize;
+    }
+
+    /**
+     * Largest power-of-2 sample size keeping sampled size >= ({@code dstWidth}, {@code dstHeight}).
+     * Destination size SHOULD be > 0.
+     */
+    public static int
+    computeSampleSize(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        int sampleSize = 1;
+        while (srcWidth / (sampleSize * 2) >= dstWidth
+               && srcHeight / (sampleSize * 2) >= dstHeight)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+}
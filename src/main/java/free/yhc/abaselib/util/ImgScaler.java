@@ -0,0 +1,384 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Resize ARGB pixels to exact size.
+ *
+ * Filter is separable - horizontal pass and then vertical pass.
+ * Area-averaging is used for shrinking, and bilinear is used for enlarging.
+ * Weights are fixed-point. So, solid color is kept as it is.
+ * Pixels are premultiplied while filtering to avoid dark fringe at transparent edges.
+ *
+ * Rows of each pass are split into bands. Bands are taken by calling thread and helpers run
+ *   at given executor. Calling thread doesn't wait helper that is not started yet. So, busy
+ *   executor just makes resizing serial.
+ *
+ * This is pure-Java. DO NOT use Android framework here.
+ */
+public class ImgScaler {
+    private static final int WEIGHT_SHIFT = 14;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_SHIFT;
+    // Band smaller than this is not worth to hand over to other thread.
+    private static final int MIN_BAND_PIXELS = 16 * 1024;
+
+    /*
+     * Contributions of source pixels to each destination pixel along one axis.
+     * Destination pixel i = sum of (src[start[i] + k] * weights[i * taps + k]) for k in [0, taps)
+     */
+    private static class Filter {
+        final int taps;
+        final int[] start;
+        final int[] weights;
+
+        Filter(int aTaps, int[] aStart, int[] aWeights) {
+            taps = aTaps;
+            start = aStart;
+            weights = aWeights;
+        }
+    }
+
+    interface BandOp {
+        void run(int from, int to);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * Make sum of weights of a pixel be exactly WEIGHT_ONE.
+     */
+    private static void
+    normalize(double[] w, int[] out, int off, int taps) {
+        double sum = 0;
+        for (int k = 0; k < taps; k++)
+            sum += w[k];
+        int isum = 0;
+        int maxk = 0;
+        for (int k = 0; k < taps; k++) {
+            out[off + k] = (int)Math.round(w[k] * WEIGHT_ONE / sum);
+            isum += out[off + k];
+            if (w[k] > w[maxk])
+                maxk = k;
+        }
+        out[off + maxk] += WEIGHT_ONE - isum;
+    }
+
+    private static Filter
+    createFilter(int srcLen, int dstLen) {
+        double scale = (double)srcLen / dstLen;
+        if (scale <= 1.0) {
+            // Bilinear
+            int[] start = new int[dstLen];
+            int[] weights = new int[dstLen * 2];
+            double[] w = new double[2];
+            for (int i = 0; i < dstLen; i++) {
+                double center = (i + 0.5) * scale - 0.5;
+                int s = (int)Math.floor(center);
+                double f = center - s;
+                if (s < 0) {
+                    s = 0;
+                    f = 0;
+                } else if (s >= srcLen - 1) {
+                    s = Math.max(0, srcLen - 2);
+                    f = srcLen - 1 == s ? 0 : 1;
+                }
+                start[i] = s;
+                w[0] = 1.0 - f;
+                w[1] = f;
+                normalize(w, weights, i * 2, 2);
+            }
+            return new Filter(2, start, weights);
+        }
+
+        // Area-averaging. Destination pixel i covers [i * scale, (i + 1) * scale) of source.
+        int taps = (int)Math.ceil(scale) + 1;
+        int[] start = new int[dstLen];
+        int[] weights = new int[dstLen * taps];
+        double[] w = new double[taps];
+        for (int i = 0; i < dstLen; i++) {
+            double lo = i * scale;
+            double hi = Math.min(srcLen, (i + 1) * scale);
+            int s = (int)lo;
+            for (int k = 0; k < taps; k++) {
+                double plo = Math.max(lo, s + k);
+                double phi = Math.min(hi, s + k + 1);
+                w[k] = phi > plo ? phi - plo : 0;
+            }
+            start[i] = s;
+            normalize(w, weights, i * taps, taps);
+        }
+        return new Filter(taps, start, weights);
+    }
+
+    private static int
+    clamp8(int v) {
+        return v < 0 ? 0 : v > 255 ? 255 : v;
+    }
+
+    private static void
+    premultiply(int[] px, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int c = px[i];
+            int a = c >>> 24;
+            if (255 == a)
+                continue;
+            int r = (((c >> 16) & 0xff) * a + 127) / 255;
+            int g = (((c >> 8) & 0xff) * a + 127) / 255;
+            int b = ((c & 0xff) * a + 127) / 255;
+            px[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static void
+    unpremultiply(int[] px, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int c = px[i];
+            int a = c >>> 24;
+            if (255 == a)
+                continue;
+            if (0 == a) {
+                px[i] = 0;
+                continue;
+            }
+            int r = Math.min(255, (((c >> 16) & 0xff) * 255 + a / 2) / a);
+            int g = Math.min(255, (((c >> 8) & 0xff) * 255 + a / 2) / a);
+            int b = Math.min(255, ((c & 0xff) * 255 + a / 2) / a);
+            px[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static int
+    pack(int a, int r, int g, int b) {
+        return (clamp8(a >> WEIGHT_SHIFT) << 24)
+               | (clamp8(r >> WEIGHT_SHIFT) << 16)
+               | (clamp8(g >> WEIGHT_SHIFT) << 8)
+               | clamp8(b >> WEIGHT_SHIFT);
+    }
+
+    /**
+     * Filter one row horizontally: src[srcOff, srcOff + sw) -> dst[dstOff, dstOff + dw)
+     * Taps having 0 weight are never read. So, they may be out of row.
+     */
+    private static void
+    filterRow(Filter f, int[] src, int srcOff, int[] dst, int dstOff, int dw) {
+        final int taps = f.taps;
+        final int round = 1 << (WEIGHT_SHIFT - 1);
+        for (int i = 0; i < dw; i++) {
+            int a = round, r = round, g = round, b = round;
+            int si = srcOff + f.start[i];
+            int wi = i * taps;
+            for (int k = 0; k < taps; k++) {
+                int weight = f.weights[wi + k];
+                if (0 == weight)
+                    continue;
+                int c = src[si + k];
+                a += (c >>> 24) * weight;
+                r += ((c >> 16) & 0xff) * weight;
+                g += ((c >> 8) & 0xff) * weight;
+                b += (c & 0xff) * weight;
+            }
+            dst[dstOff + i] = pack(a, r, g, b);
+        }
+    }
+
+    /**
+     * Filter rows [from, to) of destination vertically.
+     * Source rows are accessed sequentially to be cache-friendly.
+     */
+    private static void
+    filterRows(Filter f, int[] src, int[] dst, int w, int from, int to) {
+        final int taps = f.taps;
+        final int round = 1 << (WEIGHT_SHIFT - 1);
+        // a, r, g, b accumulators of each pixel of a row.
+        int[] acc = new int[w * 4];
+        for (int y = from; y < to; y++) {
+            Arrays.fill(acc, round);
+            int s = f.start[y];
+            int wi = y * taps;
+            for (int k = 0; k < taps; k++) {
+                int weight = f.weights[wi + k];
+                if (0 == weight)
+                    continue;
+                int off = (s + k) * w;
+                for (int x = 0, ai = 0; x < w; x++, ai += 4) {
+                    int c = src[off + x];
+                    acc[ai] += (c >>> 24) * weight;
+                    acc[ai + 1] += ((c >> 16) & 0xff) * weight;
+                    acc[ai + 2] += ((c >> 8) & 0xff) * weight;
+                    acc[ai + 3] += (c & 0xff) * weight;
+                }
+            }
+            int doff = y * w;
+            for (int x = 0, ai = 0; x < w; x++, ai += 4)
+                dst[doff + x] = pack(acc[ai], acc[ai + 1], acc[ai + 2], acc[ai + 3]);
+        }
+    }
+
+    /**
+     * Run {@code op} over [0, n) split into at most {@code maxBands} bands.
+     * Exception thrown by any band is rethrown at calling thread after all bands are done.
+     */
+    static void
+    runBands(Executor executor, int maxBands, int n, int pixelsPerUnit, final BandOp op) {
+        int bands = Math.max(1, (int)Math.min(n, (long)n * pixelsPerUnit / MIN_BAND_PIXELS));
+        final int nrBands = null == executor ? 1 : Math.min(bands, maxBands);
+        if (1 >= nrBands) {
+            op.run(0, n);
+            return;
+        }
+        final int bandSize = (n + nrBands - 1) / nrBands;
+        final int total = n;
+        final AtomicInteger next = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(nrBands);
+        // First failure of any band. It is rethrown at calling thread.
+        final AtomicReference<Throwable> failure = new AtomicReference<>(null);
+        Runnable worker = new Runnable() {
+            @Override
+            public void
+            run() {
+                int band;
+                while ((band = next.getAndIncrement()) < nrBands) {
+                    try {
+                        // Remaining bands are skipped after failure. Result is thrown away anyway.
+                        if (null == failure.get()) {
+                            int from = band * bandSize;
+                            op.run(Math.min(from, total), Math.min(from + bandSize, total));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        for (int i = 1; i < nrBands; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        worker.run();
+        // Only bands taken by helpers are remained. They are running now.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException)
+            throw (RuntimeException)e;
+        if (e instanceof Error)
+            throw (Error)e;
+        if (null != e)
+            throw new RuntimeException(e);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * Resize non-premultiplied ARGB pixels (ex. from Bitmap.getPixels()).
+     * NOTE: {@code src} is used as working buffer. So, its contents are changed.
+     * Exception thrown at helper thread is rethrown here.
+     *
+     * @param executor helper threads run here. {@code null} to run only at calling thread.
+     * @return resized pixels of {@code dw * dh} length.
+     */
+    public static int[]
+    scale(int[] src, int sw, int sh, int dw, int dh, Executor executor) {
+        return scale(src, sw, sh, dw, dh, executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxBands maximum number of bands of each pass.
+     */
+    static int[]
+    scale(final int[] src, final int sw, final int sh,
+          final int dw, final int dh, Executor executor, int maxBands) {
+        if (0 >= sw || 0 >= sh || 0 >= dw || 0 >= dh || src.length < sw * sh)
+            throw new IllegalArgumentException("src " + sw + "x" + sh + " -> dst " + dw + "x" + dh);
+        if (sw == dw && sh == dh)
+            return src;
+
+        final Filter fx = createFilter(sw, dw);
+        final Filter fy = createFilter(sh, dh);
+        final int[] tmp = new int[dw * sh];
+        final int[] dst = new int[dw * dh];
+
+        // Horizontal pass : source rows -> tmp rows
+        runBands(executor, maxBands, sh, sw, new BandOp() {
+            @Override
+            public void
+            run(int from, int to) {
+                premultiply(src, from * sw, to * sw);
+                for (int y = from; y < to; y++)
+                    filterRow(fx, src, y * sw, tmp, y * dw, dw);
+            }
+        });
+        // Vertical pass : tmp rows -> dst rows
+        runBands(executor, maxBands, dh, dw * fy.taps, new BandOp() {
+            @Override
+            public void
+            run(int from, int to) {
+                filterRows(fy, tmp, dst, dw, from, to);
+                unpremultiply(dst, from * dw, to * dw);
+            }
+        });
+        return dst;
+    }
+}
@@ -38,16 +38,62 @@ package free.yhc.abaselib.util;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Process;
 import android.support.annotation.NonNull;
 
 import java.io.ByteArrayOutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import free.yhc.abaselib.metrics.Histogram;
+import free.yhc.abaselib.metrics.Metrics;
+import free.yhc.abaselib.metrics.StripedCounter;
+import free.yhc.abaselib.metrics.Tracer;
 import free.yhc.baselib.Logger;
 
 public class ImgUtil {
     private static final boolean DBG = Logger.DBG_DEFAULT;
     private static final Logger P = Logger.create(ImgUtil.class, Logger.LOGLV_DEFAULT);
 
+    private static final Histogram sMtDecodeTime = Metrics.histogram("img.decode.time.us");
+    private static final StripedCounter sMtDecodeInBytes = Metrics.counter("img.decode.in.bytes");
+    private static final StripedCounter sMtDecodeOutBytes = Metrics.counter("img.decode.out.bytes");
+    private static final StripedCounter sMtDecodeFail = Metrics.counter("img.decode.fail");
+    private static final Histogram sMtEncodeTime = Metrics.histogram("img.encode.time.us");
+    private static final StripedCounter sMtEncodeOutBytes = Metrics.counter("img.encode.out.bytes");
+    private static final Histogram sMtScaleTime = Metrics.histogram("img.scale.time.us");
+
+    // Helper threads of ImgScaler. Created at first use.
+    private static ThreadPoolExecutor sScalerPool = null;
+
+    private static synchronized ThreadPoolExecutor
+    getScalerPool() {
+        if (null == sScalerPool) {
+            int nr = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            sScalerPool = new ThreadPoolExecutor(
+                    nr, nr, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread
+                        newThread(@NonNull final Runnable r) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void
+                                run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                                    r.run();
+                                }
+                            }, "ImgScaler");
+                        }
+                    });
+            sScalerPool.allowCoreThreadTimeOut(true);
+        }
+        return sScalerPool;
+    }
+
     /**
      * Decode image from file path(String) or raw data (byte[]).
      * @param image Two types are supported.
@@ -103,23 +149,7 @@ public class ImgUtil {
     adjustFixedRatio(@NonNull int[] out, boolean scale,
                      int boundW, int boundH, int width, int height) {
         P.bug(width > 0 && height > 0);
-        // Check size of picture..
-        float rw = (float) boundW / (float) width; // width ratio
-        float rh = (float) boundH / (float) height; // height ratio
-
-        float ratio = (rw > rh) ? rh : rw; // choose minimum
-        if (!scale && ratio >= 1.0f) {
-            out[0] = width;
-            out[1] = height;
-            return false;
-        } else {
-            // Scaling or shrinking
-            // integer-type-casting(rounding down) guarantees that value cannot
-            // be greater than bound!!
-            out[0] = (int)(ratio * width);
-            out[1] = (int)(ratio * height);
-            return true;
-        }
+        return ImgGeom.adjustFixedRatio(out, scale, boundW, boundH, width, height);
     }
 
     /**
@@ -133,6 +163,121 @@ public class ImgUtil {
      */
     public static Bitmap
     decodeBitmap(@NonNull Object bitmap, boolean scale, int boundW, int boundH) {
+        return decodeBitmapMeasured(bitmap, scale, boundW, boundH, false);
+    }
+
+    /**
+     * Same with {@link #decodeBitmap(Object, boolean, int, int)}. But size of bitmap is exactly
+     *   same with one calculated by {@link #adjustFixedRatio(int[], boolean, int, int, int, int)}.
+     * Image is decoded with sampling, and then resized by {@link #scaleBitmap(Bitmap, int, int)}.
+     * So, quality is better but it's more expensive.
+     * @return null if fails
+     */
+    public static Bitmap
+    decodeBitmapExact(@NonNull Object bitmap, boolean scale, int boundW, int boundH) {
+        return decodeBitmapMeasured(bitmap, scale, boundW, boundH, true);
+    }
+
+    /**
+     * Same with {@link #decodeBitmap(Object, boolean, int, int)} or
+     *   {@link #decodeBitmapExact(Object, boolean, int, int)}, but decoded bitmap is kept
+     *   at {@link PixelCache}. And it is restored from the cache without decoding next time.
+     * Use this for small bitmaps like thumbnails.
+     * @param exact true to use {@link #decodeBitmapExact(Object, boolean, int, int)}
+     * @return null if fails
+     */
+    public static Bitmap
+    decodeBitmapCached(@NonNull Object bitmap, boolean scale, int boundW, int boundH,
+                       boolean exact) {
+        String key = PixelCache.keyOf(bitmap, scale, boundW, boundH, exact ? "exact" : "");
+        Bitmap bm = PixelCache.get(key);
+        if (null != bm)
+            return bm;
+        bm = decodeBitmapMeasured(bitmap, scale, boundW, boundH, exact);
+        if (null != bm)
+            PixelCache.put(key, bm);
+        return bm;
+    }
+
+    private static Bitmap
+    decodeBitmapMeasured(@NonNull Object bitmap, boolean scale, int boundW, int boundH,
+                         boolean exact) {
+        long guard = UiIoGuard.enter("ImgUtil.decodeBitmap");
+        long tr = Tracer.begin("ImgUtil.decodeBitmap");
+        long startUs = Metrics.nowUs();
+        Bitmap bm;
+        try {
+            bm = exact
+                    ? decodeBitmapExactInternal(bitmap, scale, boundW, boundH)
+                    : decodeBitmapInternal(bitmap, scale, boundW, boundH);
+        } finally {
+            Tracer.end(tr);
+            UiIoGuard.exit("ImgUtil.decodeBitmap", guard);
+        }
+        sMtDecodeTime.record(Metrics.nowUs() - startUs);
+        if (bitmap instanceof byte[])
+            sMtDecodeInBytes.add(((byte[])bitmap).length);
+        if (null == bm)
+            sMtDecodeFail.inc();
+        else
+            sMtDecodeOutBytes.add(bm.getByteCount());
+        return bm;
+    }
+
+    private static Bitmap
+    decodeBitmapExactInternal(@NonNull Object bitmap, boolean scale, int boundW, int boundH) {
+        if (0 >= boundW || 0 >= boundH)
+            return decodeBitmap(bitmap, null);
+        int[] bitmapsz = new int[2];
+        if (!getBitmapSize(bitmap, bitmapsz))
+            return null;
+        int[] bsz = new int[2];
+        if (!adjustFixedRatio(bsz, scale, boundW, boundH, bitmapsz[0], bitmapsz[1]))
+            return decodeBitmap(bitmap, null);
+        if (0 >= bsz[0] || 0 >= bsz[1])
+            return null;
+
+        BitmapFactory.Options opt = new BitmapFactory.Options();
+        opt.inDither = false;
+        opt.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        opt.inSampleSize = ImgGeom.computeSampleSize(bitmapsz[0], bitmapsz[1], bsz[0], bsz[1]);
+        Bitmap sampled = decodeBitmap(bitmap, opt);
+        if (null == sampled)
+            return null;
+        Bitmap bm = scaleBitmap(sampled, bsz[0], bsz[1]);
+        if (bm != sampled)
+            sampled.recycle();
+        return bm;
+    }
+
+    /**
+     * Resize bitmap to exact size with area-averaging(shrinking) or bilinear(enlarging) filter.
+     * Work is split into row bands and run in parallel.
+     * @return {@code bm} itself if it already has the size. Otherwise new ARGB_8888 bitmap.
+     */
+    @NonNull
+    public static Bitmap
+    scaleBitmap(@NonNull Bitmap bm, int width, int height) {
+        P.bug(0 < width && 0 < height);
+        int sw = bm.getWidth();
+        int sh = bm.getHeight();
+        if (sw == width && sh == height)
+            return bm;
+        long tr = Tracer.begin("ImgUtil.scaleBitmap");
+        long startUs = Metrics.nowUs();
+        try {
+            int[] px = new int[sw * sh];
+            bm.getPixels(px, 0, sw, 0, 0, sw, sh);
+            px = ImgScaler.scale(px, sw, sh, width, height, getScalerPool());
+            return Bitmap.createBitmap(px, width, height, Bitmap.Config.ARGB_8888);
+        } finally {
+            sMtScaleTime.record(Metrics.nowUs() - startUs);
+            Tracer.end(tr);
+        }
+    }
+
+    private static Bitmap
+    decodeBitmapInternal(@NonNull Object bitmap, boolean scale, int boundW, int boundH) {
         BitmapFactory.Options opt = null;
         if (0 < boundW && 0 < boundH) {
             int[] bitmapsz = new int[2]; // image size : [0]=width / [1] = height
@@ -152,13 +297,11 @@ public class ImgUtil {
                 if (0 >= bsz[0])
                     return null;
 
-                int sampleSize = 1;
-                while (1 < bitmapsz[0] / (bsz[0] * sampleSize))
-                    sampleSize *= 2;
+                int sampleSize = ImgGeom.computeSampleSize(bitmapsz[0], bsz[0]);
 
                 // shrinking based on width ratio!!
                 // NOTE : width-based-shrinking may make 1-pixel error in height
-                // side!
+                // side! Use decodeBitmapExact if exact size is required.
                 // (This is not Math!! And we are using integer!!! we cannot
                 // make it exactly!!!)
                 opt.inScaled = true;
@@ -181,10 +324,20 @@ public class ImgUtil {
     @NonNull
     public static byte[]
     compressToJpeg(Bitmap bm, int quality, int initOutStreamSize) {
-        long time = System.currentTimeMillis();
+        long guard = UiIoGuard.enter("ImgUtil.compressToJpeg");
+        long tr = Tracer.begin("ImgUtil.compressToJpeg");
+        long startUs = Metrics.nowUs();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(initOutStreamSize);
-        bm.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-        if (DBG) P.v("TIME: Compress Image : " + (System.currentTimeMillis() - time));
+        try {
+            bm.compress(Bitmap.CompressFormat.JPEG, quality, baos);
+        } finally {
+            Tracer.end(tr);
+            UiIoGuard.exit("ImgUtil.compressToJpeg", guard);
+        }
+        long timeUs = Metrics.nowUs() - startUs;
+        sMtEncodeTime.record(timeUs);
+        sMtEncodeOutBytes.add(baos.size());
+        if (DBG) P.v("TIME: Compress Image : " + timeUs / 1000);
         return baos.toByteArray();
     }
 
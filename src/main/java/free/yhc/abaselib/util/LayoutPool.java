@@ -0,0 +1,299 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import java.util.ArrayDeque;
+
+import free.yhc.abaselib.AppEnv;
+import free.yhc.baselib.Logger;
+
+/*
+ * Pool of pre-inflated views.
+ *
+ * Registered layouts are inflated at background looper, and kept at bounded per-layout pool.
+ * {@link AUtil#inflateLayout(int)} takes a view from this pool if available, otherwise it
+ *   inflates synchronously as before.
+ * Note that views are inflated with application context and without root.
+ * So, only layouts inflated by {@code AUtil.inflateLayout(layout, null)} can be served by pool.
+ */
+public class LayoutPool {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(LayoutPool.class, Logger.LOGLV_DEFAULT);
+
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    private static final Object sLock = new Object();
+    // Guarded by sLock
+    private static final SparseArray<Slot> sSlots = new SparseArray<>();
+    // Guarded by sLock
+    private static Handler sInflaterHandler = null;
+    // Used only at inflater thread.
+    private static LayoutInflater sInflater = null;
+    // Guarded by sLock. Maximum number of views kept per layout regardless of capacity.
+    private static int sLimit = NO_LIMIT;
+
+    private static class Slot {
+        final int layout;
+        final int capacity;
+        // Effective capacity. Lowered under memory pressure. Guarded by sLock.
+        int limit;
+        final ArrayDeque<View> views;
+        // Number of inflations scheduled but not done yet.
+        int inflating = 0;
+        long hits = 0;
+        long misses = 0;
+        Slot(int aLayout, int aCapacity) {
+            layout = aLayout;
+            capacity = aCapacity;
+            limit = Math.min(aCapacity, sLimit);
+            views = new ArrayDeque<>(aCapacity);
+        }
+    }
+
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final int pooled;
+
+        Stats(long aHits, long aMisses, int aPooled) {
+            hits = aHits;
+            misses = aMisses;
+            pooled = aPooled;
+        }
+
+        /**
+         * @return hit-rate in [0, 1]. 0 if pool is never used.
+         */
+        public float
+        hitRate() {
+            long total = hits + misses;
+            return 0 == total ? 0f : (float)hits / (float)total;
+        }
+
+        @Override
+        public String
+        toString() {
+            return "hits=" + hits + ", misses=" + misses + ", pooled=" + pooled;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private static Handler
+    getInflaterHandler() {
+        // Called with sLock held.
+        if (null == sInflaterHandler) {
+            HandlerThread ht = new HandlerThread("LayoutPool", Process.THREAD_PRIORITY_BACKGROUND);
+            ht.start();
+            sInflaterHandler = new Handler(ht.getLooper());
+        }
+        return sInflaterHandler;
+    }
+
+    private static void
+    inflateInBackground(@NonNull final Slot slot) {
+        if (null == sInflater)
+            // LayoutInflater is NOT thread-safe. So, inflater thread uses its own instance.
+            sInflater = LayoutInflater.from(AppEnv.getAppContext())
+                                      .cloneInContext(AppEnv.getAppContext());
+        View v = null;
+        try {
+            v = sInflater.inflate(slot.layout, null);
+        } catch (RuntimeException e) {
+            // Some views cannot be created out of UI thread.
+            // Layout having those views should not be pre-inflated.
+            P.w("Pre-inflation fails. Layout is unregistered: " + slot.layout + " : " + e);
+            synchronized (sLock) {
+                // Layout may be re-registered in the meantime. New slot SHOULD NOT be removed.
+                if (slot == sSlots.get(slot.layout))
+                    sSlots.remove(slot.layout);
+            }
+        }
+        synchronized (sLock) {
+            slot.inflating--;
+            if (null != v
+                && slot == sSlots.get(slot.layout)
+                && slot.views.size() < slot.limit)
+                slot.views.addLast(v);
+        }
+    }
+
+    private static void
+    scheduleFill(@NonNull final Slot slot) {
+        // Called with sLock held.
+        int n = slot.limit - slot.views.size() - slot.inflating;
+        if (0 >= n)
+            return;
+        Handler h = getInflaterHandler();
+        Runnable r = new Runnable() {
+            @Override
+            public void
+            run() {
+                inflateInBackground(slot);
+            }
+        };
+        for (int i = 0; i < n; i++) {
+            slot.inflating++;
+            h.post(r);
+        }
+    }
+
+    /**
+     * @return {@code null} if there is no pre-inflated view.
+     */
+    static View
+    obtain(int layout) {
+        synchronized (sLock) {
+            Slot slot = sSlots.get(layout);
+            if (null == slot)
+                return null;
+            View v = slot.views.pollFirst();
+            if (null == v)
+                slot.misses++;
+            else
+                slot.hits++;
+            scheduleFill(slot);
+            return v;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * Register layout to be pre-inflated.
+     * Inflation starts immediately at background looper.
+     * Re-registering layout replaces old pool.
+     * @param capacity maximum number of pre-inflated views kept for the layout.
+     */
+    public static void
+    register(int layout, int capacity) {
+        P.bug(0 < capacity);
+        synchronized (sLock) {
+            Slot slot = new Slot(layout, capacity);
+            sSlots.put(layout, slot);
+            scheduleFill(slot);
+        }
+    }
+
+    public static void
+    unregister(int layout) {
+        synchronized (sLock) {
+            sSlots.remove(layout);
+        }
+    }
+
+    /**
+     * Limit number of pre-inflated views kept at each layout - ex. under memory pressure.
+     * Views exceeding the limit are dropped, and pools are not filled over the limit.
+     * Raising limit schedules filling pools up to new limit.
+     * @param maxPerLayout {@link #NO_LIMIT} to restore capacity given at registration.
+     */
+    public static void
+    setLimit(int maxPerLayout) {
+        P.bug(0 <= maxPerLayout);
+        synchronized (sLock) {
+            sLimit = maxPerLayout;
+            for (int i = 0; i < sSlots.size(); i++) {
+                Slot slot = sSlots.valueAt(i);
+                slot.limit = Math.min(slot.capacity, maxPerLayout);
+                while (slot.views.size() > slot.limit)
+                    slot.views.pollLast();
+                scheduleFill(slot);
+            }
+        }
+    }
+
+    /**
+     * Drop all pre-inflated views.
+     * Pools are filled again as views are taken.
+     */
+    public static void
+    clear() {
+        synchronized (sLock) {
+            for (int i = 0; i < sSlots.size(); i++)
+                sSlots.valueAt(i).views.clear();
+        }
+    }
+
+    /**
+     * @return {@code null} if layout is not registered.
+     */
+    public static Stats
+    getStats(int layout) {
+        synchronized (sLock) {
+            Slot slot = sSlots.get(layout);
+            if (null == slot)
+                return null;
+            return new Stats(slot.hits, slot.misses, slot.views.size());
+        }
+    }
+
+    /**
+     * @return stats accumulated over all registered layouts.
+     */
+    @NonNull
+    public static Stats
+    getStats() {
+        long hits = 0;
+        long misses = 0;
+        int pooled = 0;
+        synchronized (sLock) {
+            for (int i = 0; i < sSlots.size(); i++) {
+                Slot slot = sSlots.valueAt(i);
+                hits += slot.hits;
+                misses += slot.misses;
+                pooled += slot.views.size();
+            }
+        }
+        if (DBG) P.v("LayoutPool stats: hits=" + hits + ", misses=" + misses);
+        return new Stats(hits, misses, pooled);
+    }
+}
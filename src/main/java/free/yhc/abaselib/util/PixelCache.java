@@ -0,0 +1,469 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import free.yhc.abaselib.AppEnv;
+import free.yhc.abaselib.metrics.Histogram;
+import free.yhc.abaselib.metrics.Metrics;
+import free.yhc.abaselib.metrics.StripedCounter;
+import free.yhc.abaselib.metrics.Tracer;
+import free.yhc.baselib.Logger;
+import free.yhc.baselib.util.Util;
+
+/*
+ * Disk cache of decoded bitmaps.
+ *
+ * Bitmap is stored as raw pixels - header + pixel data - at application cache directory.
+ * At hit, file is memory-mapped and pixels are copied to new bitmap without codec work.
+ * So, it is for small bitmaps like thumbnails. Bitmap larger than 1/8 of cache size is not cached.
+ * Entries are evicted in LRU order when total size exceeds maximum size.
+ *
+ * File format (big endian):
+ *   magic(4) version(4) width(4) height(4) flags(4) key length(4) config(4)
+ *   key(UTF-8) pixels(Bitmap.copyPixelsToBuffer)
+ */
+public class PixelCache {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(PixelCache.class, Logger.LOGLV_DEFAULT);
+
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    private static final String DIR_NAME = "abaselib-pixels";
+    private static final String FILE_SUFFIX = ".px";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x41425058; // "ABPX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int FLAG_HAS_ALPHA = 0x01;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Bitmap.Config[] CONFIGS = {
+            Bitmap.Config.ARGB_8888,
+            Bitmap.Config.RGB_565,
+            Bitmap.Config.ALPHA_8,
+    };
+
+    private static final StripedCounter sMtHit = Metrics.counter("pixcache.hit");
+    private static final StripedCounter sMtMiss = Metrics.counter("pixcache.miss");
+    private static final StripedCounter sMtEvict = Metrics.counter("pixcache.evict");
+    private static final Histogram sMtLoadTime = Metrics.histogram("pixcache.load.time.us");
+
+    private static final Object sLock = new Object();
+    // All below are guarded by sLock
+    private static long sMaxSize = DEFAULT_MAX_SIZE;
+    private static File sDir = null;
+    // file name -> file size. In LRU order. null until directory is scanned.
+    private static LinkedHashMap<String, Long> sIndex = null;
+    private static long sTotalSize = 0;
+    private static int sTmpSeq = 0;
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private static int
+    configIndex(Bitmap.Config config) {
+        for (int i = 0; i < CONFIGS.length; i++) {
+            if (CONFIGS[i] == config)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of key. Used as file name.
+     */
+    @NonNull
+    private static String
+    fileName(@NonNull String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return String.format("%016x", h) + FILE_SUFFIX;
+    }
+
+    /**
+     * Called with sLock held.
+     * Directory is scanned at first call. So, callers SHOULD be in UiIoGuard section.
+     */
+    @NonNull
+    private static LinkedHashMap<String, Long>
+    getIndex() {
+        if (null != sIndex)
+            return sIndex;
+        sDir = new File(AppEnv.getAppContext().getCacheDir(), DIR_NAME);
+        if (!sDir.isDirectory() && !sDir.mkdirs())
+            P.w("Cannot create cache directory: " + sDir.getAbsolutePath());
+        sIndex = new LinkedHashMap<>(64, 0.75f, true);
+        sTotalSize = 0;
+        File[] files = sDir.listFiles();
+        if (null == files)
+            return sIndex;
+        // Modification time is read once per file - not at every comparison.
+        final long[] mtimes = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            mtimes[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        // Recently used file has later modification time. See get().
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int
+            compare(Integer i0, Integer i1) {
+                long m0 = mtimes[i0];
+                long m1 = mtimes[i1];
+                return m0 < m1 ? -1 : m0 > m1 ? 1 : 0;
+            }
+        });
+        for (Integer i : order) {
+            File f = files[i];
+            if (f.getName().endsWith(FILE_SUFFIX)) {
+                long len = f.length();
+                sIndex.put(f.getName(), len);
+                sTotalSize += len;
+            } else
+                // Remained from interrupted write.
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+        }
+        return sIndex;
+    }
+
+    /**
+     * Called with sLock held.
+     */
+    private static void
+    trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Long>> iter = getIndex().entrySet().iterator();
+        while (sTotalSize > maxSize && iter.hasNext()) {
+            Map.Entry<String, Long> e = iter.next();
+            iter.remove();
+            sTotalSize -= e.getValue();
+            //noinspection ResultOfMethodCallIgnored
+            new File(sDir, e.getKey()).delete();
+            sMtEvict.inc();
+        }
+    }
+
+    private static void
+    remove(@NonNull String name) {
+        synchronized (sLock) {
+            Long sz = getIndex().remove(name);
+            if (null != sz)
+                sTotalSize -= sz;
+            //noinspection ResultOfMethodCallIgnored
+            new File(sDir, name).delete();
+        }
+    }
+
+    /**
+     * @param outValid outValid[0] is set to false if entry is broken. It's true if entry is valid
+     *                 even if it is for other key having same hash.
+     */
+    private static Bitmap
+    load(@NonNull File f, @NonNull String key, @NonNull boolean[] outValid) throws IOException {
+        outValid[0] = false;
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            long size = ch.size();
+            if (size < HEADER_SIZE)
+                return null;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (MAGIC != buf.getInt() || VERSION != buf.getInt())
+                return null;
+            int width = buf.getInt();
+            int height = buf.getInt();
+            int flags = buf.getInt();
+            int keyLen = buf.getInt();
+            int config = buf.getInt();
+            if (0 >= width || 0 >= height
+                || 0 > config || config >= CONFIGS.length
+                || 0 > keyLen || keyLen > buf.remaining())
+                return null;
+            byte[] keyBytes = new byte[keyLen];
+            buf.get(keyBytes);
+            if (!key.equals(new String(keyBytes, UTF8))) {
+                // Hash collision. Entry is valid for other key.
+                outValid[0] = true;
+                return null;
+            }
+            Bitmap bm = Bitmap.createBitmap(width, height, CONFIGS[config]);
+            if (buf.remaining() != bm.getByteCount()) {
+                bm.recycle();
+                return null;
+            }
+            bm.copyPixelsFromBuffer(buf);
+            bm.setHasAlpha(Util.bitIsSet(flags, FLAG_HAS_ALPHA));
+            outValid[0] = true;
+            return bm;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void
+    store(@NonNull File f, @NonNull String key, @NonNull Bitmap bm, int config) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF8);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            long size = HEADER_SIZE + keyBytes.length + bm.getByteCount();
+            raf.setLength(size);
+            // Pixels are copied directly to mapped file.
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.putInt(MAGIC)
+               .putInt(VERSION)
+               .putInt(bm.getWidth())
+               .putInt(bm.getHeight())
+               .putInt(bm.hasAlpha() ? FLAG_HAS_ALPHA : 0)
+               .putInt(keyBytes.length)
+               .putInt(config);
+            buf.put(keyBytes);
+            // No fsync. Entry is disposable, and renaming temp file makes it atomic.
+            bm.copyPixelsToBuffer(buf);
+        } finally {
+            raf.close();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * Key of bitmap decoded by {@code ImgUtil.decodeBitmap(image, scale, boundW, boundH)}.
+     * File is identified by path, size and modification time. Raw data is identified by its
+     *   length and CRC32.
+     * @param image file path(String) or raw image data(byte[])
+     * @param variant any string to distinguish decoding methods of same image and bounds.
+     */
+    @NonNull
+    public static String
+    keyOf(@NonNull Object image, boolean scale, int boundW, int boundH, @NonNull String variant) {
+        StringBuilder sb = new StringBuilder();
+        if (image instanceof String) {
+            File f = new File((String)image);
+            sb.append("f:").append(f.getAbsolutePath())
+              .append(':').append(f.length())
+              .append(':').append(f.lastModified());
+        } else if (image instanceof byte[]) {
+            byte[] data = (byte[])image;
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            sb.append("b:").append(data.length)
+              .append(':').append(Long.toHexString(crc.getValue()));
+        } else
+            P.bug(false);
+        sb.append('|').append(scale)
+          .append('|').append(boundW).append('x').append(boundH)
+          .append('|').append(variant);
+        return sb.toString();
+    }
+
+    private static Bitmap
+    getInternal(@NonNull String key) {
+        String name = fileName(key);
+        File f;
+        synchronized (sLock) {
+            // This also moves entry to the tail of LRU order.
+            if (null == getIndex().get(name)) {
+                sMtMiss.inc();
+                return null;
+            }
+            f = new File(sDir, name);
+        }
+        long startUs = Metrics.nowUs();
+        Bitmap bm = null;
+        boolean[] valid = new boolean[] { false };
+        try {
+            bm = load(f, key, valid);
+        } catch (IOException e) {
+            if (DBG) P.v("Fail to load " + name + " : " + e);
+        }
+        if (null == bm) {
+            sMtMiss.inc();
+            if (!valid[0])
+                remove(name);
+            return null;
+        }
+        // To keep LRU order over process restart.
+        //noinspection ResultOfMethodCallIgnored
+        f.setLastModified(System.currentTimeMillis());
+        sMtLoadTime.record(Metrics.nowUs() - startUs);
+        sMtHit.inc();
+        return bm;
+    }
+
+    private static void
+    putInternal(@NonNull String key, @NonNull Bitmap bm, int config) {
+        long maxSize;
+        synchronized (sLock) {
+            maxSize = sMaxSize;
+            getIndex();
+        }
+        if (bm.getByteCount() > maxSize / 8)
+            return;
+
+        String name = fileName(key);
+        File tmp;
+        synchronized (sLock) {
+            tmp = new File(sDir, name + "." + sTmpSeq++ + TMP_SUFFIX);
+        }
+        try {
+            store(tmp, key, bm, config);
+        } catch (IOException e) {
+            P.w("Fail to store " + name + " : " + e);
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return;
+        }
+
+        synchronized (sLock) {
+            File f = new File(sDir, name);
+            if (!tmp.renameTo(f)) {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+                return;
+            }
+            Long old = getIndex().put(name, f.length());
+            if (null != old)
+                sTotalSize -= old;
+            sTotalSize += f.length();
+            trimToSize(sMaxSize);
+        }
+    }
+
+    /**
+     * @return null if there is no valid entry for the key.
+     */
+    public static Bitmap
+    get(@NonNull String key) {
+        // Directory scan at first use, load and cleanup of broken entry are all I/O.
+        long guard = UiIoGuard.enter("PixelCache.get");
+        long tr = Tracer.begin("PixelCache.get");
+        try {
+            return getInternal(key);
+        } finally {
+            Tracer.end(tr);
+            UiIoGuard.exit("PixelCache.get", guard);
+        }
+    }
+
+    /**
+     * Bitmap having config other than ARGB_8888, RGB_565 or ALPHA_8, or too large bitmap is
+     *   silently ignored.
+     */
+    public static void
+    put(@NonNull String key, @NonNull Bitmap bm) {
+        int config = configIndex(bm.getConfig());
+        if (0 > config)
+            return;
+        long guard = UiIoGuard.enter("PixelCache.put");
+        long tr = Tracer.begin("PixelCache.put");
+        try {
+            putInternal(key, bm, config);
+        } finally {
+            Tracer.end(tr);
+            UiIoGuard.exit("PixelCache.put", guard);
+        }
+    }
+
+    /**
+     * Entries are evicted immediately if current size exceeds new maximum size.
+     */
+    public static void
+    setMaxSize(long maxSize) {
+        P.bug(0 < maxSize);
+        long guard = UiIoGuard.enter("PixelCache.setMaxSize");
+        try {
+            synchronized (sLock) {
+                sMaxSize = maxSize;
+                trimToSize(maxSize);
+            }
+        } finally {
+            UiIoGuard.exit("PixelCache.setMaxSize", guard);
+        }
+    }
+
+    public static void
+    clear() {
+        long guard = UiIoGuard.enter("PixelCache.clear");
+        try {
+            synchronized (sLock) {
+                trimToSize(0);
+            }
+        } finally {
+            UiIoGuard.exit("PixelCache.clear", guard);
+        }
+    }
+
+    /**
+     * @return total size of cached files in bytes.
+     */
+    public static long
+    getSize() {
+        long guard = UiIoGuard.enter("PixelCache.getSize");
+        try {
+            synchronized (sLock) {
+                getIndex();
+                return sTotalSize;
+            }
+        } finally {
+            UiIoGuard.exit("PixelCache.getSize", guard);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import android.support.annotation.NonNull;
+import android.util.SparseArray;
+
+import free.yhc.baselib.Logger;
+
+/*
+ * Cache of resource values that are looked up very frequently.
+ *
+ * Values are keyed by resource id (int) without boxing.
+ * Cache is invalidated at every configuration change - ex. locale, orientation and so on -
+ *   because resource value may depend on any configuration qualifier.
+ * It is also dropped under critical memory pressure.
+ */
+public class ResCache {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(ResCache.class, Logger.LOGLV_DEFAULT);
+
+    private static final Object sLock = new Object();
+    // All below are guarded by sLock
+    private static final SparseArray<String> sStrings = new SparseArray<>();
+    private static final SparseArray<CharSequence> sTexts = new SparseArray<>();
+    // 0 means 'not cached yet'.
+    private static float sDensity = 0f;
+    // Increased at every invalidation.
+    // Value looked up before invalidation SHOULD NOT be put to cache after invalidation.
+    private static int sGeneration = 0;
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * Called at every configuration change. See {@link free.yhc.abaselib.MemoryGovernor}.
+     */
+    public static void
+    invalidate() {
+        if (DBG) P.v("Resource cache is invalidated");
+        synchronized (sLock) {
+            sGeneration++;
+            sStrings.clear();
+            sTexts.clear();
+            sDensity = 0f;
+        }
+    }
+
+    @NonNull
+    static String
+    getString(int id) {
+        int gen;
+        synchronized (sLock) {
+            String s = sStrings.get(id);
+            if (null != s)
+                return s;
+            gen = sGeneration;
+        }
+        String s = AUtil.getResources().getString(id);
+        synchronized (sLock) {
+            if (gen == sGeneration)
+                sStrings.put(id, s);
+        }
+        return s;
+    }
+
+    @NonNull
+    static CharSequence
+    getText(int id) {
+        int gen;
+        synchronized (sLock) {
+            CharSequence s = sTexts.get(id);
+            if (null != s)
+                return s;
+            gen = sGeneration;
+        }
+        CharSequence s = AUtil.getResources().getText(id);
+        synchronized (sLock) {
+            if (gen == sGeneration)
+                sTexts.put(id, s);
+        }
+        return s;
+    }
+
+    static float
+    getDensity() {
+        int gen;
+        synchronized (sLock) {
+            if (0f < sDensity)
+                return sDensity;
+            gen = sGeneration;
+        }
+        float density = AUtil.getResources().getDisplayMetrics().density;
+        synchronized (sLock) {
+            if (gen == sGeneration)
+                sDensity = density;
+        }
+        return density;
+    }
+}
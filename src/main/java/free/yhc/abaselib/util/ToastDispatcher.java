@@ -0,0 +1,232 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.widget.Toast;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import free.yhc.abaselib.AppEnv;
+import free.yhc.baselib.Logger;
+
+/*
+ * Rate-limited and coalescing toast queue.
+ *
+ * - Toast having same text and position with one shown (or queued) in dedup window is dropped.
+ * - Next toast is shown after previous one disappears (and minimum interval is passed).
+ *   Others are queued. So, toasts never pile up at system toast queue.
+ * - If queue is full, the oldest one is dropped.
+ * This can be used at any thread. Requests are moved to UI thread in a batch via UI executor.
+ */
+public class ToastDispatcher {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(ToastDispatcher.class, Logger.LOGLV_DEFAULT);
+
+    public static final long DEFAULT_DEDUP_WINDOW = 2000; // ms
+    public static final long DEFAULT_MIN_INTERVAL = 500; // ms
+    // Time for which system shows toast. See NotificationManagerService.
+    private static final long SHORT_DURATION_TIME = 2000; // ms
+    private static final long LONG_DURATION_TIME = 3500; // ms
+    public static final int DEFAULT_MAX_QUEUE = 8;
+
+    // Size of 'last shown' map triggering cleanup of expired entries.
+    private static final int SHOWN_MAP_CLEANUP_THRESHOLD = 32;
+
+    private static volatile long sDedupWindow = DEFAULT_DEDUP_WINDOW;
+    private static volatile long sMinInterval = DEFAULT_MIN_INTERVAL;
+    private static volatile int sMaxQueue = DEFAULT_MAX_QUEUE;
+
+    // All below are used only at UI thread.
+    private static final ArrayDeque<Req> sQ = new ArrayDeque<>();
+    // key -> uptime(ms) when toast having the key is shown.
+    private static final HashMap<String, Long> sShown = new HashMap<>();
+    private static long sNextShowAt = 0;
+    private static boolean sPumpScheduled = false;
+
+    private static final Runnable sPump = new Runnable() {
+        @Override
+        public void
+        run() {
+            sPumpScheduled = false;
+            pump();
+        }
+    };
+
+    private static class Req implements Runnable {
+        final CharSequence text;
+        final int duration;
+        final int gravity;
+        final int xOffset;
+        final int yOffset;
+        final String key;
+
+        Req(CharSequence aText, int aDuration, int aGravity, int aXOffset, int aYOffset) {
+            text = aText;
+            duration = aDuration;
+            gravity = aGravity;
+            xOffset = aXOffset;
+            yOffset = aYOffset;
+            key = aGravity + ":" + aXOffset + ":" + aYOffset + ":" + aText;
+        }
+
+        @Override
+        public void
+        run() {
+            enqueue(this);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    // Below functions are called only at UI thread.
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private static boolean
+    isDuplicated(@NonNull Req req, long now) {
+        Long shownAt = sShown.get(req.key);
+        if (null != shownAt && now - shownAt < sDedupWindow)
+            return true;
+        for (Req r : sQ) {
+            if (r.key.equals(req.key))
+                return true;
+        }
+        return false;
+    }
+
+    private static void
+    cleanupShown(long now) {
+        if (sShown.size() < SHOWN_MAP_CLEANUP_THRESHOLD)
+            return;
+        Iterator<Map.Entry<String, Long>> iter = sShown.entrySet().iterator();
+        while (iter.hasNext()) {
+            if (now - iter.next().getValue() >= sDedupWindow)
+                iter.remove();
+        }
+    }
+
+    private static void
+    enqueue(@NonNull Req req) {
+        long now = SystemClock.uptimeMillis();
+        if (isDuplicated(req, now)) {
+            if (DBG) P.v("Duplicated toast is dropped: " + req.text);
+            return;
+        }
+        if (sQ.size() >= sMaxQueue) {
+            Req dropped = sQ.pollFirst();
+            if (DBG) P.v("Toast queue is full. Drop: " + dropped.text);
+        }
+        sQ.addLast(req);
+        pump();
+    }
+
+    private static long
+    displayTime(int duration) {
+        return Toast.LENGTH_LONG == duration ? LONG_DURATION_TIME : SHORT_DURATION_TIME;
+    }
+
+    private static void
+    pump() {
+        if (sQ.isEmpty() || sPumpScheduled)
+            return;
+        long now = SystemClock.uptimeMillis();
+        if (now < sNextShowAt) {
+            sPumpScheduled = true;
+            AppEnv.getUiHandler().postDelayed(sPump, sNextShowAt - now);
+            return;
+        }
+        Req req = sQ.pollFirst();
+        Toast t = Toast.makeText(AppEnv.getAppContext(), req.text, req.duration);
+        t.setGravity(req.gravity, req.xOffset, req.yOffset);
+        t.show();
+        cleanupShown(now);
+        sShown.put(req.key, now);
+        long interval = Math.max(sMinInterval, displayTime(req.duration));
+        sNextShowAt = now + interval;
+        if (!sQ.isEmpty()) {
+            sPumpScheduled = true;
+            AppEnv.getUiHandler().postDelayed(sPump, interval);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * @param ms toast having same text and position within this time is dropped.
+     */
+    public static void
+    setDedupWindow(long ms) {
+        P.bug(0 <= ms);
+        sDedupWindow = ms;
+    }
+
+    /**
+     * @param ms minimum interval between toasts. Interval is at least display time of toast
+     *           regardless of this.
+     */
+    public static void
+    setMinInterval(long ms) {
+        P.bug(0 <= ms);
+        sMinInterval = ms;
+    }
+
+    /**
+     * @param size maximum number of toasts waiting to be shown.
+     */
+    public static void
+    setMaxQueue(int size) {
+        P.bug(0 < size);
+        sMaxQueue = size;
+    }
+
+    /**
+     * This can be called at any thread.
+     * @param duration Toast.LENGTH_SHORT or Toast.LENGTH_LONG
+     */
+    public static void
+    show(@NonNull CharSequence text, int duration, int gravity, int xOffset, int yOffset) {
+        AppEnv.getUiExecutor().runOnContext(
+                new Req(text, duration, gravity, xOffset, yOffset));
+    }
+}
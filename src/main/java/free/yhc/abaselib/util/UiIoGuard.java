@@ -0,0 +1,204 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import free.yhc.baselib.Logger;
+
+/*
+ * Opt-in detector of blocking I/O at UI thread.
+ *
+ * Library I/O entry points - ex. ImgUtil.decodeBitmap, AUtil.createTempFile - are guarded.
+ * If guarded function is called at UI thread, it is handled by policy:
+ *   OFF   : nothing (default). Cost is one volatile read.
+ *   COUNT : call site and duration are recorded. See getViolations().
+ *   LOG   : COUNT + warning log.
+ *   THROW : IllegalStateException is thrown before doing I/O.
+ * Library SHOULD be initialized before setting policy other than OFF.
+ */
+public class UiIoGuard {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(UiIoGuard.class, Logger.LOGLV_DEFAULT);
+
+    public static final long NOT_GUARDED = -1;
+
+    private static final String LIB_PACKAGE_PREFIX = "free.yhc.abaselib.";
+
+    public enum Policy {
+        OFF,
+        COUNT,
+        LOG,
+        THROW
+    }
+
+    private static volatile Policy sPolicy = Policy.OFF;
+
+    // Guarded by sViolations
+    private static final HashMap<String, Violation> sViolations = new HashMap<>();
+
+    public static class Violation {
+        public final String op;
+        public final String callSite;
+        public long count = 0;
+        public long totalTime = 0; // ms
+        public long maxTime = 0; // ms
+
+        Violation(String aOp, String aCallSite) {
+            op = aOp;
+            callSite = aCallSite;
+        }
+
+        Violation(Violation v) {
+            op = v.op;
+            callSite = v.callSite;
+            count = v.count;
+            totalTime = v.totalTime;
+            maxTime = v.maxTime;
+        }
+
+        @Override
+        public String
+        toString() {
+            return op + " at " + callSite
+                   + " : count=" + count + ", total(ms)=" + totalTime + ", max(ms)=" + maxTime;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * @return first frame out of this library. That is, caller of library entry point.
+     */
+    @NonNull
+    private static String
+    findCallSite() {
+        StackTraceElement[] st = new Throwable().getStackTrace();
+        for (StackTraceElement e : st) {
+            if (!e.getClassName().startsWith(LIB_PACKAGE_PREFIX))
+                return e.toString();
+        }
+        return 0 < st.length ? st[st.length - 1].toString() : "(unknown)";
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    // Used at guarded entry points.
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * Called at the beginning of guarded I/O.
+     * @return token passed to {@link #exit(String, long)}
+     */
+    public static long
+    enter(@NonNull String op) {
+        Policy policy = sPolicy;
+        if (Policy.OFF == policy || !AUtil.isUiThread())
+            return NOT_GUARDED;
+        if (Policy.THROW == policy)
+            throw new IllegalStateException("Blocking I/O at UI thread: " + op + " from " + findCallSite());
+        return SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Called at the end of guarded I/O - even if it fails.
+     */
+    public static void
+    exit(@NonNull String op, long token) {
+        if (NOT_GUARDED == token)
+            return;
+        long time = SystemClock.uptimeMillis() - token;
+        String callSite = findCallSite();
+        String key = op + "@" + callSite;
+        synchronized (sViolations) {
+            Violation v = sViolations.get(key);
+            if (null == v) {
+                v = new Violation(op, callSite);
+                sViolations.put(key, v);
+            }
+            v.count++;
+            v.totalTime += time;
+            if (time > v.maxTime)
+                v.maxTime = time;
+        }
+        if (Policy.LOG == sPolicy)
+            P.w("Blocking I/O at UI thread(" + time + "ms): " + op + " from " + callSite);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    public static void
+    setPolicy(@NonNull Policy policy) {
+        if (DBG) P.v("UI I/O guard policy: " + policy.name());
+        sPolicy = policy;
+    }
+
+    @NonNull
+    public static Policy
+    getPolicy() {
+        return sPolicy;
+    }
+
+    @NonNull
+    public static List<Violation>
+    getViolations() {
+        List<Violation> l = new ArrayList<>();
+        synchronized (sViolations) {
+            for (Violation v : sViolations.values())
+                l.add(new Violation(v));
+        }
+        return l;
+    }
+
+    public static void
+    clearViolations() {
+        synchronized (sViolations) {
+            sViolations.clear();
+        }
+    }
+}
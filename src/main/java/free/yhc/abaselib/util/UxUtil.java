@@ -44,7 +44,6 @@ import android.support.annotation.NonNull;
 import android.view.Gravity;
 import android.widget.Toast;
 
-import free.yhc.abaselib.AppEnv;
 import free.yhc.baselib.Logger;
 
 public class UxUtil {
@@ -56,44 +55,32 @@ public class UxUtil {
         void onNegative(@NonNull Dialog dialog);
     }
 
+    /*
+     * Toasts are shown via ToastDispatcher. So, these can be called at any thread, and
+     *   duplicated toasts in a short time are dropped.
+     */
     public static void
     showTextToast(@NonNull CharSequence text) {
-        Toast t = Toast.makeText(
-                AppEnv.getAppContext(),
-                text,
-                Toast.LENGTH_SHORT);
-        t.setGravity(Gravity.CENTER, 0, 0);
-        t.show();
+        ToastDispatcher.show(text, Toast.LENGTH_SHORT, Gravity.CENTER, 0, 0);
     }
 
     public static void
     showTextToast(@NonNull CharSequence text, boolean lengthLong) {
-        Toast t = Toast.makeText(
-                AppEnv.getAppContext(),
-                text,
-                lengthLong? Toast.LENGTH_LONG: Toast.LENGTH_SHORT);
-        t.setGravity(Gravity.CENTER, 0, 0);
-        t.show();
+        ToastDispatcher.show(text,
+                             lengthLong? Toast.LENGTH_LONG: Toast.LENGTH_SHORT,
+                             Gravity.CENTER, 0, 0);
     }
 
     public static void
     showTextToast(int textid) {
-        Toast t = Toast.makeText(
-                AppEnv.getAppContext(),
-                textid,
-                Toast.LENGTH_SHORT);
-        t.setGravity(Gravity.CENTER, 0, 0);
-        t.show();
+        showTextToast(AUtil.getResText(textid));
     }
 
     public static void
     showTextToastAtBottom(int textid, boolean lengthLong) {
-        Toast t = Toast.makeText(
-                AppEnv.getAppContext(),
-                textid,
-                lengthLong ? Toast.LENGTH_LONG : Toast.LENGTH_SHORT);
-        t.setGravity(Gravity.BOTTOM | Gravity.CENTER_HORIZONTAL, 0, 50);
-        t.show();
+        ToastDispatcher.show(AUtil.getResText(textid),
+                             lengthLong ? Toast.LENGTH_LONG : Toast.LENGTH_SHORT,
+                             Gravity.BOTTOM | Gravity.CENTER_HORIZONTAL, 0, 50);
     }
 
     ///////////////////////////////////////////////////////////////////////////
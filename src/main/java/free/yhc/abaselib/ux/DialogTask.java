@@ -40,16 +40,25 @@ import android.app.Dialog;
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.view.KeyEvent;
 import android.view.View;
 
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import free.yhc.abaselib.AppEnv;
+import free.yhc.abaselib.metrics.Histogram;
+import free.yhc.abaselib.metrics.Metrics;
+import free.yhc.abaselib.metrics.StripedCounter;
+import free.yhc.abaselib.metrics.Tracer;
 import free.yhc.baselib.Logger;
 import free.yhc.baselib.adapter.android.AHandlerAdapter;
 import free.yhc.baselib.async.Task;
 import free.yhc.baselib.async.ThreadEx;
 import free.yhc.abaselib.util.AUtil;
+import free.yhc.abaselib.util.ForegroundWorkerPool;
 
 /* DialogTask is used not to run time-consuming task at UI thread.
  * That is, this is only for user-responsibility.
@@ -60,6 +69,7 @@ import free.yhc.abaselib.util.AUtil;
  * And, Job assigned to this decorator doesn't added to TaskManager, because even if there is lots of
  * Tasks in TaskManager, this job must NOT wait them.
  * Note that decorated job SHOULD be treated as foreground job!
+ * To run several tasks concurrently behind one dialog, decorate {@link ParallelTask}.
  */
 public class DialogTask extends Task<Object> implements
 DialogInterface.OnDismissListener,
@@ -68,18 +78,126 @@ View.OnClickListener {
     private static final Logger P = Logger.create(DialogTask.class, Logger.LOGLV_DEFAULT);
 
     private static final int MAX_PROGRESS_RANGE = 10000; // See Android API reference document.
+    // About one display frame.
+    public static final long DEFAULT_PROGRESS_INTERVAL = 16; // ms
+
+    // Used only at UI thread.
+    private static final HashMap<String, DialogTask> sRetained = new HashMap<>();
+
+    private static final StripedCounter sMtStarted = Metrics.counter("dialogtask.started");
+    private static final StripedCounter sMtDone = Metrics.counter("dialogtask.done");
+    private static final StripedCounter sMtCancelled = Metrics.counter("dialogtask.cancelled");
+    private static final StripedCounter sMtDialogCreated = Metrics.counter("dialogtask.dialog.created");
+    private static final StripedCounter sMtProgressPublished = Metrics.counter("dialogtask.progress.published");
+    private static final StripedCounter sMtProgressDropped = Metrics.counter("dialogtask.progress.dropped");
+    private static final Histogram sMtRunTime = Metrics.histogram("dialogtask.run.time.ms");
+    private static final Histogram sMtCancelLatency = Metrics.histogram("dialogtask.cancel.latency.ms");
 
     private final Task mTask;
     private final Style mStyle;
-    private final ProgressDialog mDialog;
+    private final String mRetainTag;
     private final CharSequence mTitle;
     private final CharSequence mMessage;
     private final CharSequence mCancelButtonText ;
     private final CharSequence mWaitingCancelMessage;
-    private final DialogInterface.OnDismissListener mOnDismissListener;
-
+    private final ProgressThrottle mProgressThrottle;
+    private final long mShowDelay; // ms
+    private final long mMinShowTime; // ms
+    private final long mDeadline; // ms
+    private final long mCancelGrace; // ms
+    // Thread running doAsync().
+    private volatile Thread mWorker = null;
+
+    // All below are used only at UI thread.
+    // null while detached. See attach() and detach().
+    private Context mContext;
+    // Usually owned by context. So, it is also replaced at attach() and released at detach().
+    private DialogInterface.OnDismissListener mOnDismissListener;
+    // true if task ends(done or cancelled). Result is kept for retained task. See attach().
+    private boolean mFinished = false;
+    private boolean mFinishedByCancel = false;
+    private Object mResult = null;
+    private Exception mException = null;
+    // Dialog is created lazily. See createDialog().
+    private ProgressDialog mDialog = null;
+    // true if dialog should be shown at attached context.
+    private boolean mDialogWanted = false;
+    private long mShownAt = -1; // uptime(ms) when dialog is shown.
+    private boolean mCancelling = false;
+    private long mStartedAt = -1; // uptime(ms) when task is started.
+    private long mCancelAt = -1; // uptime(ms) when cancel is requested.
+    private int mMax = -1; // scaled. -1 if progress is not initialized.
+    private int mProgress = 0; // scaled
     private double mProgressScaleRatio = 1.0;
 
+    private final Runnable mShowDialog = new Runnable() {
+        @Override
+        public void
+        run() {
+            showDialog();
+        }
+    };
+
+    // Dismiss deferred by minimum show time.
+    private final Runnable mDismissDialog = new Runnable() {
+        @Override
+        public void
+        run() {
+            dismissDialogNow();
+            recordCancelLatency();
+        }
+    };
+
+    // Trailing-edge delivery of update dropped by throttling.
+    // Without this, dropped value is kept on screen as long as progress stalls.
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean(false);
+    private final Runnable mFlushProgress = new Runnable() {
+        @Override
+        public void
+        run() {
+            mFlushScheduled.set(false);
+            flushPendingProgress();
+        }
+    };
+
+    private final Runnable mDeadlineExpired = new Runnable() {
+        @Override
+        public void
+        run() {
+            P.w("Deadline is expired. Cancel: " + getUniqueName());
+            cancel();
+        }
+    };
+
+    private final Runnable mCancelGraceExpired = new Runnable() {
+        @Override
+        public void
+        run() {
+            P.w("Task doesn't respond to cancel. Dismiss and interrupt: " + getUniqueName());
+            AppEnv.getUiHandler().removeCallbacks(mShowDialog);
+            AppEnv.getUiHandler().removeCallbacks(mDismissDialog);
+            // Dialog SHOULD NOT be re-created at attach() even if task is still running.
+            mDialogWanted = false;
+            dismissDialogNow();
+            recordCancelLatency();
+            Thread worker = mWorker;
+            if (null != worker)
+                worker.interrupt();
+        }
+    };
+
+    public static class CancelLatencyStats {
+        public final long count;
+        public final long totalTime; // ms
+        public final long maxTime; // ms
+
+        CancelLatencyStats(long aCount, long aTotalTime, long aMaxTime) {
+            count = aCount;
+            totalTime = aTotalTime;
+            maxTime = aMaxTime;
+        }
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     //
     //
@@ -106,6 +224,160 @@ View.OnClickListener {
     //
     //
     ///////////////////////////////////////////////////////////////////////////
+    private void
+    createDialog() {
+        P.bug(AUtil.isUiThread() && null == mDialog);
+        sMtDialogCreated.inc();
+        long tr = Tracer.begin("DialogTask.createDialog");
+        try {
+            createDialogInternal();
+        } finally {
+            Tracer.end(tr);
+        }
+    }
+
+    private void
+    createDialogInternal() {
+        mDialog = new ProgressDialog(mContext);
+        if (null != mTitle)
+            mDialog.setTitle(mTitle);
+        if (mCancelling && null != mWaitingCancelMessage)
+            mDialog.setMessage(mWaitingCancelMessage);
+        else if (null != mMessage)
+            mDialog.setMessage(mMessage);
+        mDialog.setProgressStyle(mStyle.getStyle());
+        if (0 <= mMax) {
+            mDialog.setMax(mMax);
+            mDialog.setProgress(mProgress);
+        }
+        // To prevent dialog is dismissed unexpectedly by back-key
+        mDialog.setCancelable(false);
+
+        // To prevent dialog is dismissed unexpectedly by search-key (in Gingerbread)
+        mDialog.setOnKeyListener(new DialogInterface.OnKeyListener() {
+            @Override
+            public boolean
+            onKey(DialogInterface dialog, int keyCode, KeyEvent event) {
+                return KeyEvent.KEYCODE_SEARCH == keyCode
+                        && 0 == event.getRepeatCount();
+            }
+        });
+
+        mDialog.setOnDismissListener(this);
+
+        // NOTE
+        // See below codes.
+        // In case of cancelable dialog, set dummy onClick is registered.
+        // And then, REAL onClick is re-registered for the button directly.
+        // This is to workaround Android Framework's ProgressDialog policy.
+        // According to Android Framework, ProgressDialog dismissed as soon as button is clicked.
+        // But, this is not what I expected.
+        // Below code is a way of workaround this policy.
+        // For details, See "https://groups.google.com/forum/?fromgroups=#!topic/android-developers/-1bIchuFASQ".
+        if (null != mCancelButtonText) {
+            // Set dummy onClick listener.
+            mDialog.setButton(Dialog.BUTTON_POSITIVE,
+                              mCancelButtonText,
+                              new DialogInterface.OnClickListener() {
+                                  @Override
+                                  public void
+                                  onClick(DialogInterface dialog, int which) {
+                                      // Cancel button is clicked.
+                                  }
+                              });
+        }
+        mDialog.show();
+        if (0 > mShownAt)
+            mShownAt = SystemClock.uptimeMillis();
+        if (null != mCancelButtonText)
+            mDialog.getButton(Dialog.BUTTON_POSITIVE).setOnClickListener(this);
+    }
+
+    private void
+    recordCancelLatency() {
+        if (0 > mCancelAt)
+            return;
+        long latency = SystemClock.uptimeMillis() - mCancelAt;
+        mCancelAt = -1;
+        sMtCancelLatency.record(latency);
+        if (DBG) P.v("Cancel-to-dismiss latency(ms): " + latency);
+    }
+
+    private void
+    showDialog() {
+        mDialogWanted = true;
+        // Dialog will be created at attach() if it's detached now.
+        if (null != mContext && null == mDialog)
+            createDialog();
+    }
+
+    private void
+    dismissDialogNow() {
+        if (null == mDialog)
+            return;
+        // This may be called after context(ie. Activity) is destroyed.
+        // In this case, dialog is no more attached windowManager and exception is issued.
+        // we need to ignore this exception here with out concern.
+        try {
+            mDialog.dismiss();
+        } catch (IllegalArgumentException ignored) { }
+    }
+
+    private void
+    flushPendingProgress() {
+        // Locked to keep order of publishing with onProgress. Otherwise, older value may be
+        //   published after newer one.
+        synchronized (mProgressThrottle) {
+            long progress = mProgressThrottle.takePending();
+            if (0 <= progress)
+                publishProgress(progress);
+        }
+    }
+
+    private void
+    releaseRetained() {
+        if (null != mRetainTag && this == sRetained.get(mRetainTag))
+            sRetained.remove(mRetainTag);
+    }
+
+    private void
+    onFinished(boolean cancelled, Object result, Exception ex) {
+        mFinished = true;
+        mFinishedByCancel = cancelled;
+        mResult = result;
+        mException = ex;
+        // Retained task finished while detached keeps its result until it is re-attached
+        //   or discarded. Otherwise, new context can't find it and may run it again.
+        if (null != mContext)
+            releaseRetained();
+        dismissDialog();
+    }
+
+    /**
+     * Dismiss dialog keeping minimum show time.
+     * If dialog is not shown yet, it will never be shown.
+     */
+    private void
+    dismissDialog() {
+        AppEnv.getUiHandler().removeCallbacks(mShowDialog);
+        AppEnv.getUiHandler().removeCallbacks(mDeadlineExpired);
+        AppEnv.getUiHandler().removeCallbacks(mCancelGraceExpired);
+        AppEnv.getUiHandler().removeCallbacks(mFlushProgress);
+        mDialogWanted = false;
+        if (null == mDialog) {
+            recordCancelLatency();
+            return;
+        }
+        long remain = mMinShowTime - (SystemClock.uptimeMillis() - mShownAt);
+        // Cancel latency is recorded when dialog actually disappears.
+        if (0 < remain)
+            AppEnv.getUiHandler().postDelayed(mDismissDialog, remain);
+        else {
+            dismissDialogNow();
+            recordCancelLatency();
+        }
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     //
     //
@@ -116,8 +388,14 @@ View.OnClickListener {
     onEarlyCancel(boolean started, Object param) {
         super.onEarlyCancel(started, param);
         P.bug(AUtil.isUiThread());
-        if (started && null != mWaitingCancelMessage)
+        mCancelling = started;
+        if (started && null != mWaitingCancelMessage && null != mDialog)
             mDialog.setMessage(mWaitingCancelMessage);
+        if (0 > mCancelAt) {
+            mCancelAt = SystemClock.uptimeMillis();
+            if (started && 0 < mCancelGrace)
+                AppEnv.getUiHandler().postDelayed(mCancelGraceExpired, mCancelGrace);
+        }
         mTask.cancel(param);
     }
 
@@ -127,97 +405,72 @@ View.OnClickListener {
     onEarlyCancelled(Exception ex, Object param) {
         super.onEarlyCancelled(ex, param);
         P.bug(AUtil.isUiThread());
-        // See comments in onPostRun
-        try {
-            mDialog.dismiss();
-        } catch (IllegalArgumentException ignored) { }
+        sMtCancelled.inc();
+        onFinished(true, null, ex);
     }
 
     @Override
     protected void
     onEarlyPostRun(Object result, Exception ex) {
         super.onEarlyPostRun(result, ex);
-        // This may be called after context(ie. Activity) is destroyed.
-        // In this case, dialog is no more attached windowManager and exception is issued.
-        // we need to ignore this exception here with out concern.
-        try {
-            mDialog.dismiss();
-        } catch (IllegalArgumentException ignored) { }
+        sMtDone.inc();
+        if (0 <= mStartedAt)
+            sMtRunTime.record(SystemClock.uptimeMillis() - mStartedAt);
+        onFinished(false, result, ex);
     }
 
     @Override
     protected Object
     doAsync() throws Exception {
         if (DBG) P.v("* Start background Job : DialogTask\n");
-        return mTask.startSync();
+        mWorker = Thread.currentThread();
+        long tr = Tracer.begin("DialogTask.doAsync");
+        try {
+            return mTask.startSync();
+        } finally {
+            Tracer.end(tr);
+            mWorker = null;
+            // Last progress dropped by throttling SHOULD be delivered.
+            flushPendingProgress();
+        }
     }
 
     @Override
     protected void
     onEarlyProgressInit(long maxProgress) {
         super.onEarlyProgressInit(maxProgress);
-        if (maxProgress > MAX_PROGRESS_RANGE)
-            mProgressScaleRatio = MAX_PROGRESS_RANGE / (double)maxProgress;
-        mDialog.setMax((int)(maxProgress * mProgressScaleRatio));
-
+        mProgressScaleRatio = ProgressThrottle.scaleRatio(MAX_PROGRESS_RANGE, maxProgress);
+        mMax = (int)(maxProgress * mProgressScaleRatio);
+        if (null != mDialog)
+            mDialog.setMax(mMax);
     }
 
     @Override
     protected void
     onEarlyProgress(long progress) {
         super.onEarlyProgress(progress);
-        mDialog.setProgress((int)(progress * mProgressScaleRatio));
+        mProgress = (int)(progress * mProgressScaleRatio);
+        if (null != mDialog)
+            mDialog.setProgress(mProgress);
     }
 
     @Override
     protected void
     onEarlyStarted() {
         super.onEarlyStarted();
-        if (null != mTitle)
-            mDialog.setTitle(mTitle);
-        if (null != mMessage)
-            mDialog.setMessage(mMessage);
-        mDialog.setProgressStyle(mStyle.getStyle());
-        //mDialog.setMax(mMaxProgress);
-        // To prevent dialog is dismissed unexpectedly by back-key
-        mDialog.setCancelable(false);
-
-        // To prevent dialog is dismissed unexpectedly by search-key (in Gingerbread)
-        mDialog.setOnKeyListener(new DialogInterface.OnKeyListener() {
-            @Override
-            public boolean
-            onKey(DialogInterface dialog, int keyCode, KeyEvent event) {
-                return KeyEvent.KEYCODE_SEARCH == keyCode
-                        && 0 == event.getRepeatCount();
-            }
-        });
-
-        mDialog.setOnDismissListener(this);
-
-        // NOTE
-        // See below codes.
-        // In case of cancelable dialog, set dummy onClick is registered.
-        // And then, REAL onClick is re-registered for the button directly.
-        // This is to workaround Android Framework's ProgressDialog policy.
-        // According to Android Framework, ProgressDialog dismissed as soon as button is clicked.
-        // But, this is not what I expected.
-        // Below code is a way of workaround this policy.
-        // For details, See "https://groups.google.com/forum/?fromgroups=#!topic/android-developers/-1bIchuFASQ".
-        if (null != mCancelButtonText) {
-            // Set dummy onClick listener.
-            mDialog.setButton(Dialog.BUTTON_POSITIVE,
-                              mCancelButtonText,
-                              new DialogInterface.OnClickListener() {
-                                  @Override
-                                  public void
-                                  onClick(DialogInterface dialog, int which) {
-                                      // Cancel button is clicked.
-                                  }
-                              });
+        sMtStarted.inc();
+        // Registered at start. Task that is never started SHOULD NOT occupy the tag.
+        if (null != mRetainTag) {
+            P.bug(!sRetained.containsKey(mRetainTag));
+            sRetained.put(mRetainTag, this);
         }
-        mDialog.show();
-        if (null != mCancelButtonText)
-            mDialog.getButton(Dialog.BUTTON_POSITIVE).setOnClickListener(this);
+        mStartedAt = SystemClock.uptimeMillis();
+        if (0 < mDeadline)
+            AppEnv.getUiHandler().postDelayed(mDeadlineExpired, mDeadline);
+        if (0 < mShowDelay)
+            AppEnv.getUiHandler().postDelayed(mShowDialog, mShowDelay);
+        else
+            showDialog();
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -226,6 +479,16 @@ View.OnClickListener {
     //
     ///////////////////////////////////////////////////////////////////////////
     /**
+     * @param progressInterval minimum interval(ms) between progress updates of dialog.
+     *                         Updates not changing dialog are always dropped regardless of it.
+     * @param showDelay dialog is created and shown only if task is still running after this
+     *                  time(ms). 0 to show immediately.
+     * @param minShowTime once shown, dialog is kept at least this time(ms).
+     * @param retainTag not null to retain this task across Activity re-creation.
+     *                  See {@link Builder#setRetainTag(String)}.
+     * @param deadline task is cancelled automatically after this time(ms). 0 for no deadline.
+     * @param cancelGrace after this time(ms) from cancel, dialog is dismissed and task is
+     *                    interrupted. 0 to wait task forever.
      */
     protected DialogTask(
             @NonNull Context context,
@@ -236,12 +499,18 @@ View.OnClickListener {
             CharSequence message,
             CharSequence cancelButtonText,
             CharSequence waitingCancelMessage,
-            DialogInterface.OnDismissListener listener) {
+            DialogInterface.OnDismissListener listener,
+            long progressInterval,
+            long showDelay,
+            long minShowTime,
+            String retainTag,
+            long deadline,
+            long cancelGrace) {
         super("DialogTask(" + task.getUniqueName() + ")",
               AppEnv.getUiHandlerAdapter(),
               ThreadEx.TASK_PRIORITY_NORM,
               interruptOnCancel);
-        mDialog = new ProgressDialog(context);
+        mContext = context;
         mTask = task;
         mStyle  = style;
         mTitle = title;
@@ -249,23 +518,56 @@ View.OnClickListener {
         mCancelButtonText = cancelButtonText;
         mWaitingCancelMessage = waitingCancelMessage;
         mOnDismissListener = listener;
+        mProgressThrottle = new ProgressThrottle(MAX_PROGRESS_RANGE, progressInterval);
+        mShowDelay = showDelay;
+        mMinShowTime = minShowTime;
+        mRetainTag = retainTag;
+        mDeadline = deadline;
+        mCancelGrace = cancelGrace;
 
         //noinspection unchecked
         mTask.addEventListener(new Task.EventListener<Task, Object>() {
             @Override
             public void
             onProgressInit(@NonNull Task task, long maxProgress) {
+                mProgressThrottle.init(maxProgress);
                 DialogTask.this.publishProgressInit(maxProgress);
             }
 
             @Override
             public void
             onProgress(@NonNull Task task, long progress) {
-                DialogTask.this.publishProgress(progress);
+                long delay;
+                synchronized (mProgressThrottle) {
+                    long now = System.nanoTime();
+                    if (mProgressThrottle.offer(progress, now)) {
+                        sMtProgressPublished.inc();
+                        DialogTask.this.publishProgress(progress);
+                        return;
+                    }
+                    sMtProgressDropped.inc();
+                    delay = mProgressThrottle.delayToNext(now);
+                }
+                if (mFlushScheduled.compareAndSet(false, true))
+                    AppEnv.getUiHandler().postDelayed(mFlushProgress, delay / 1000000 + 1);
             }
         });
     }
 
+    protected DialogTask(
+            @NonNull Context context,
+            @NonNull Task task,
+            @NonNull Style style,
+            boolean interruptOnCancel,
+            CharSequence title,
+            CharSequence message,
+            CharSequence cancelButtonText,
+            CharSequence waitingCancelMessage,
+            DialogInterface.OnDismissListener listener) {
+        this(context, task, style, interruptOnCancel, title, message,
+             cancelButtonText, waitingCancelMessage, listener, DEFAULT_PROGRESS_INTERVAL, 0, 0, null, 0, 0);
+    }
+
     public static class Builder<B extends Builder> extends Task.Builder<B, DialogTask> {
         protected final Context mContext;
         protected final Task mTask;
@@ -276,6 +578,12 @@ View.OnClickListener {
         protected CharSequence mCancelButtonText = null;
         protected CharSequence mWaitingCancelMessage = null;
         protected DialogInterface.OnDismissListener mOnDismissListener = null;
+        protected long mProgressInterval = DEFAULT_PROGRESS_INTERVAL;
+        protected long mShowDelay = 0;
+        protected long mMinShowTime = 0;
+        protected String mRetainTag = null;
+        protected long mDeadline = 0;
+        protected long mCancelGrace = 0;
 
         public Builder(@NonNull Context context, @NonNull Task task) {
             super();
@@ -357,6 +665,86 @@ View.OnClickListener {
             return (B)this;
         }
 
+        /**
+         * @param ms minimum interval between progress updates of dialog. 0 not to limit rate.
+         *           Updates not changing dialog are always dropped.
+         *           Last progress is always delivered.
+         */
+        public B
+        setProgressInterval(long ms) {
+            P.bug(0 <= ms);
+            mProgressInterval = ms;
+            //noinspection unchecked
+            return (B)this;
+        }
+
+        /**
+         * Dialog is created only if task is still running after {@code ms}.
+         * So, short-running task never creates dialog window.
+         * Note that OnDismissListener is not called if dialog is never shown.
+         * @param ms 0 to show dialog as soon as task starts (default).
+         */
+        public B
+        setShowDelay(long ms) {
+            P.bug(0 <= ms);
+            mShowDelay = ms;
+            //noinspection unchecked
+            return (B)this;
+        }
+
+        /**
+         * Once dialog is shown, it is kept at least {@code ms} to avoid flicker.
+         * @param ms 0 to dismiss as soon as task is done (default).
+         */
+        public B
+        setMinShowTime(long ms) {
+            P.bug(0 <= ms);
+            mMinShowTime = ms;
+            //noinspection unchecked
+            return (B)this;
+        }
+
+        /**
+         * Retain task across Activity re-creation (ex. configuration change).
+         * Task keeps running while Activity is re-created. New Activity gets the task by
+         *   {@link DialogTask#findRetained(String)} and calls
+         *   {@link DialogTask#attach(Context, DialogInterface.OnDismissListener)}.
+         * Old Activity SHOULD call {@link DialogTask#detach()} before it is destroyed.
+         * Tag is registered when task starts.
+         * @param tag unique tag among running DialogTasks.
+         */
+        public B
+        setRetainTag(@NonNull String tag) {
+            mRetainTag = tag;
+            //noinspection unchecked
+            return (B)this;
+        }
+
+        /**
+         * Task is cancelled automatically if it doesn't end in {@code ms} from start.
+         * @param ms 0 for no deadline (default).
+         */
+        public B
+        setDeadline(long ms) {
+            P.bug(0 <= ms);
+            mDeadline = ms;
+            //noinspection unchecked
+            return (B)this;
+        }
+
+        /**
+         * If task doesn't end in {@code ms} after cancel, dialog is dismissed and thread running
+         *   task is interrupted regardless of interrupt-on-cancel option.
+         * @param ms 0 to wait task until it ends (default).
+         */
+        public B
+        setCancelGrace(long ms) {
+            P.bug(0 <= ms);
+            mCancelGrace = ms;
+            //noinspection unchecked
+            return (B)this;
+        }
+
         @Override
         @NonNull
         public DialogTask
@@ -370,7 +758,13 @@ View.OnClickListener {
                     mMessage,
                     mCancelButtonText,
                     mWaitingCancelMessage,
-                    mOnDismissListener);
+                    mOnDismissListener,
+                    mProgressInterval,
+                    mShowDelay,
+                    mMinShowTime,
+                    mRetainTag,
+                    mDeadline,
+                    mCancelGrace);
         }
     }
 
@@ -387,7 +781,143 @@ View.OnClickListener {
     public void
     forceDismissDialog() {
         P.bug(AUtil.isUiThread());
-        mDialog.dismiss();
+        AppEnv.getUiHandler().removeCallbacks(mShowDialog);
+        AppEnv.getUiHandler().removeCallbacks(mDismissDialog);
+        if (null != mDialog)
+            mDialog.dismiss();
+    }
+
+    /**
+     * @return latency from cancel request to dialog dismiss, accumulated over all DialogTasks.
+     */
+    @NonNull
+    public static CancelLatencyStats
+    getCancelLatencyStats() {
+        Histogram.Snapshot ss = sMtCancelLatency.snapshot();
+        return new CancelLatencyStats(ss.count, ss.sum, ss.max);
+    }
+
+    /**
+     * Run this task at shared worker of {@link ForegroundWorkerPool} instead of brand-new thread.
+     * Like {@code start()}, it never waits jobs of TaskManager.
+     * Result is delivered via task events as usual.
+     */
+    public void
+    startOnPool() {
+        ForegroundWorkerPool.execute(new Runnable() {
+            @Override
+            public void
+            run() {
+                try {
+                    startSync();
+                } catch (Exception e) {
+                    // Failure and cancellation are already notified via task events.
+                    if (DBG) P.v("DialogTask at worker pool ends with exception: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return {@code null} if there is no task retained with {@code tag}.
+     *         Retained task may be already finished while detached. See {@link #isFinished()}.
+     */
+    public static DialogTask
+    findRetained(@NonNull String tag) {
+        P.bug(AUtil.isUiThread());
+        return sRetained.get(tag);
+    }
+
+    /**
+     * Detach from current context without cancelling task.
+     * Dialog is dismissed silently - OnDismissListener is not called - and context and
+     *   OnDismissListener are released.
+     * If task ends while detached, it is still retained with its result until it is attached
+     *   again or discarded.
+     */
+    public void
+    detach() {
+        P.bug(AUtil.isUiThread());
+        AppEnv.getUiHandler().removeCallbacks(mDismissDialog);
+        if (null != mDialog) {
+            // Dismiss listener is notified asynchronously. So, it should be removed before dismiss.
+            mDialog.setOnDismissListener(null);
+            dismissDialogNow();
+            mDialog = null;
+        }
+        mContext = null;
+        mOnDismissListener = null;
+    }
+
+    /**
+     * Attach to new context.
+     * If dialog should be shown, fresh dialog is created with current progress.
+     * If task already ended while detached, dialog is not shown and retained entry is released.
+     *   Check {@link #isFinished()} and get result by {@link #getResult()}.
+     * @param listener notified when dialog is dismissed at new context. {@code null} for none.
+     */
+    public void
+    attach(@NonNull Context context, DialogInterface.OnDismissListener listener) {
+        P.bug(AUtil.isUiThread());
+        if (null != mContext)
+            detach();
+        mContext = context;
+        mOnDismissListener = listener;
+        if (mFinished)
+            releaseRetained();
+        else if (mDialogWanted)
+            createDialog();
+    }
+
+    public void
+    attach(@NonNull Context context) {
+        attach(context, null);
+    }
+
+    /**
+     * Release retained entry without attaching - ex. result of finished task is not needed.
+     * Running task is not cancelled by this. But it cannot be found by findRetained any more.
+     */
+    public void
+    discard() {
+        P.bug(AUtil.isUiThread());
+        releaseRetained();
+    }
+
+    /**
+     * @return true if task ends - done or cancelled.
+     */
+    public boolean
+    isFinished() {
+        P.bug(AUtil.isUiThread());
+        return mFinished;
+    }
+
+    /**
+     * @return true if task ends by cancel. Meaningful only if {@link #isFinished()}.
+     */
+    public boolean
+    isFinishedByCancel() {
+        P.bug(AUtil.isUiThread());
+        return mFinishedByCancel;
+    }
+
+    /**
+     * @return result of task. {@code null} if task is not finished or it has no result.
+     */
+    public Object
+    getResult() {
+        P.bug(AUtil.isUiThread());
+        return mResult;
+    }
+
+    /**
+     * @return exception by which task ends. {@code null} if there is none.
+     */
+    public Exception
+    getException() {
+        P.bug(AUtil.isUiThread());
+        return mException;
     }
 
     /**
@@ -0,0 +1,321 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.ux;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import free.yhc.abaselib.AppEnv;
+import free.yhc.baselib.Logger;
+import free.yhc.baselib.async.Task;
+import free.yhc.baselib.async.ThreadEx;
+
+/*
+ * Task running sub tasks concurrently.
+ *
+ * Progress of sub tasks are aggregated into one progress whose max is PROGRESS_RANGE,
+ *   with weight of each sub task.
+ * Cancelling this task cancels all sub tasks.
+ * If one of sub tasks fails, others are cancelled and the exception is thrown.
+ * Result is an array of results of sub tasks - in the order they are added.
+ * Sub tasks run at shared thread pool unless executor is given. See Builder.setExecutor().
+ */
+public class ParallelTask extends Task<Object[]> {
+    private static final boolean DBG = Logger.DBG_DEFAULT;
+    private static final Logger P = Logger.create(ParallelTask.class, Logger.LOGLV_DEFAULT);
+
+    public static final int PROGRESS_RANGE = 10000;
+
+    // Shared by all ParallelTasks. Created at first use.
+    // Threads are not bounded because sub task may be ParallelTask waiting its own sub tasks.
+    // Parallelism of each ParallelTask is bounded by number of workers. See doAsync().
+    private static ThreadPoolExecutor sPool = null;
+
+    private final Task[] mTasks;
+    private final long[] mWeights;
+    private final long mTotalWeight;
+    private final int mParallelism;
+    private final Executor mExecutor;
+    // Set when this task is cancelled or one of sub tasks fails. Sub tasks not started yet are skipped.
+    private volatile boolean mStop = false;
+
+    // Guarded by mProgLock
+    private final Object mProgLock = new Object();
+    private final long[] mMaxProgress;
+    private final double[] mFraction;
+    private long mLastProgress = -1;
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private static synchronized Executor
+    getSharedPool() {
+        if (null == sPool) {
+            sPool = new ThreadPoolExecutor(
+                    0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mSeq = new AtomicInteger(0);
+                        @Override
+                        public Thread
+                        newThread(@NonNull Runnable r) {
+                            return new Thread(r, "ParallelTask-" + mSeq.incrementAndGet());
+                        }
+                    });
+        }
+        return sPool;
+    }
+
+    private void
+    updateProgress(int i, double fraction) {
+        long progress;
+        synchronized (mProgLock) {
+            // Progress never goes backward - ex. late progress event after sub task is done.
+            mFraction[i] = Math.max(mFraction[i], fraction > 1.0 ? 1.0 : fraction);
+            double sum = 0;
+            for (int j = 0; j < mFraction.length; j++)
+                sum += mWeights[j] * mFraction[j];
+            progress = (long)(sum * PROGRESS_RANGE / mTotalWeight);
+            if (progress == mLastProgress)
+                return;
+            mLastProgress = progress;
+        }
+        publishProgress(progress);
+    }
+
+    private void
+    cancelAll(Object param) {
+        for (Task t : mTasks)
+            t.cancel(param);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    @Override
+    protected void
+    onEarlyCancel(boolean started, Object param) {
+        super.onEarlyCancel(started, param);
+        mStop = true;
+        cancelAll(param);
+    }
+
+    @Override
+    protected Object[]
+    doAsync() throws Exception {
+        if (DBG) P.v("Start parallel tasks: " + mTasks.length + ", parallelism: " + mParallelism);
+        publishProgressInit(PROGRESS_RANGE);
+        final Object[] results = new Object[mTasks.length];
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicReference<Exception> failure = new AtomicReference<>(null);
+        int nrWorkers = Math.min(mParallelism, mTasks.length);
+        final CountDownLatch done = new CountDownLatch(nrWorkers);
+        Runnable worker = new Runnable() {
+            @Override
+            public void
+            run() {
+                try {
+                    int idx;
+                    while (!mStop && (idx = next.getAndIncrement()) < mTasks.length) {
+                        try {
+                            results[idx] = mTasks[idx].startSync();
+                        } catch (Exception e) {
+                            if (failure.compareAndSet(null, e)) {
+                                mStop = true;
+                                cancelAll(null);
+                            }
+                            return;
+                        }
+                        updateProgress(idx, 1.0);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        for (int i = 0; i < nrWorkers; i++)
+            mExecutor.execute(worker);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            mStop = true;
+            throw e;
+        }
+        if (null != failure.get())
+            throw failure.get();
+        return results;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    protected ParallelTask(@NonNull Task[] tasks,
+                           @NonNull long[] weights,
+                           int parallelism,
+                           Executor executor,
+                           boolean interruptOnCancel) {
+        super("ParallelTask(" + tasks.length + ")",
+              AppEnv.getUiHandlerAdapter(),
+              ThreadEx.TASK_PRIORITY_NORM,
+              interruptOnCancel);
+        P.bug(0 < tasks.length
+              && tasks.length == weights.length
+              && 0 < parallelism);
+        mTasks = tasks;
+        mWeights = weights;
+        mParallelism = parallelism;
+        mExecutor = null != executor ? executor : getSharedPool();
+        mMaxProgress = new long[tasks.length];
+        mFraction = new double[tasks.length];
+        long total = 0;
+        for (long w : weights) {
+            P.bug(0 < w);
+            total += w;
+        }
+        mTotalWeight = total;
+
+        for (int i = 0; i < tasks.length; i++) {
+            final int idx = i;
+            //noinspection unchecked
+            tasks[i].addEventListener(new Task.EventListener<Task, Object>() {
+                @Override
+                public void
+                onProgressInit(@NonNull Task task, long maxProgress) {
+                    synchronized (mProgLock) {
+                        mMaxProgress[idx] = maxProgress;
+                    }
+                }
+
+                @Override
+                public void
+                onProgress(@NonNull Task task, long progress) {
+                    long max;
+                    synchronized (mProgLock) {
+                        max = mMaxProgress[idx];
+                    }
+                    if (0 < max)
+                        updateProgress(idx, progress / (double)max);
+                }
+            });
+        }
+    }
+
+    public static class Builder<B extends Builder> extends Task.Builder<B, ParallelTask> {
+        protected final List<Task> mTasks = new ArrayList<>();
+        protected final List<Long> mWeights = new ArrayList<>();
+        protected int mParallelism = Runtime.getRuntime().availableProcessors();
+        protected Executor mExecutor = null;
+
+        public Builder() {
+            super();
+            mOwner = AppEnv.getUiHandlerAdapter();
+        }
+
+        /**
+         * @param weight relative weight of this task in aggregated progress. SHOULD be > 0.
+         */
+        @NonNull
+        public B
+        addTask(@NonNull Task task, long weight) {
+            mTasks.add(task);
+            mWeights.add(weight);
+            //noinspection unchecked
+            return (B)this;
+        }
+
+        @NonNull
+        public B
+        addTask(@NonNull Task task) {
+            return addTask(task, 1);
+        }
+
+        /**
+         * @param parallelism maximum number of sub tasks running at the same time.
+         *                    Default is number of processors.
+         */
+        @NonNull
+        public B
+        setParallelism(int parallelism) {
+            mParallelism = parallelism;
+            //noinspection unchecked
+            return (B)this;
+        }
+
+        /**
+         * @param executor executor running sub tasks. {@code null} to use shared thread pool(default).
+         *                 Executor SHOULD be able to run {@code parallelism} jobs at the same time.
+         */
+        @NonNull
+        public B
+        setExecutor(Executor executor) {
+            mExecutor = executor;
+            //noinspection unchecked
+            return (B)this;
+        }
+
+        @Override
+        @NonNull
+        public ParallelTask
+        create() {
+            long[] weights = new long[mWeights.size()];
+            for (int i = 0; i < weights.length; i++)
+                weights[i] = mWeights.get(i);
+            return new ParallelTask(
+                    mTasks.toArray(new Task[mTasks.size()]),
+                    weights,
+                    mParallelism,
+                    mExecutor,
+                    mInterruptOnCancel);
+        }
+    }
+}
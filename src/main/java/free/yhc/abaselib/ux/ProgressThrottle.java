@@ -0,0 +1,143 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.ux;
+
+/*
+ * Decide whether progress update should be delivered to UI or not.
+ *
+ * Update is dropped if
+ *   - its value scaled to progress range of UI is same with last delivered one, or
+ *   - it comes within minimum interval from last delivered one.
+ * Last value(= max) is always delivered. And latest dropped value can be taken to be
+ *   delivered later - ex. at delayToNext() (trailing edge).
+ *
+ * This is pure-Java. DO NOT use Android framework here.
+ */
+class ProgressThrottle {
+    private final int mRange;
+    private final long mMinInterval; // ns
+
+    // All below are guarded by 'this'
+    private long mMax = 0;
+    private double mRatio = 1.0;
+    private int mLastScaled = -1;
+    private long mLastTime = 0;
+    // Raw progress value of latest dropped update. -1 if there is none.
+    private long mPending = -1;
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * @param range maximum value of scaled progress.
+     * @param minIntervalMs minimum interval between delivered updates. 0 to disable.
+     */
+    ProgressThrottle(int range, long minIntervalMs) {
+        mRange = range;
+        mMinInterval = minIntervalMs * 1000000L;
+    }
+
+    static double
+    scaleRatio(int range, long maxProgress) {
+        return maxProgress > range ? range / (double)maxProgress : 1.0;
+    }
+
+    synchronized void
+    init(long maxProgress) {
+        mMax = maxProgress;
+        mRatio = scaleRatio(mRange, maxProgress);
+        mLastScaled = -1;
+        mLastTime = 0;
+        mPending = -1;
+    }
+
+    synchronized int
+    scale(long progress) {
+        return (int)(progress * mRatio);
+    }
+
+    /**
+     * @param now current time in nano-seconds (ex. System.nanoTime())
+     * @return true if this update should be delivered.
+     */
+    synchronized boolean
+    offer(long progress, long now) {
+        int scaled = (int)(progress * mRatio);
+        if (scaled == mLastScaled) {
+            mPending = -1;
+            return false;
+        }
+        if (0 < mMinInterval
+            && (0 >= mMax || progress < mMax)
+            && 0 <= mLastScaled
+            && now - mLastTime < mMinInterval) {
+            mPending = progress;
+            return false;
+        }
+        mLastScaled = scaled;
+        mLastTime = now;
+        mPending = -1;
+        return true;
+    }
+
+    /**
+     * @param now current time in nano-seconds.
+     * @return nano-seconds until minimum interval from last delivered update passes.
+     *         0 if it's already passed.
+     */
+    synchronized long
+    delayToNext(long now) {
+        if (0 >= mMinInterval || 0 > mLastScaled)
+            return 0;
+        return Math.max(0, mLastTime + mMinInterval - now);
+    }
+
+    /**
+     * Take latest dropped update that is not delivered yet.
+     * @return -1 if there is no pending update.
+     */
+    synchronized long
+    takePending() {
+        long p = mPending;
+        mPending = -1;
+        if (0 <= p)
+            mLastScaled = (int)(p * mRatio);
+        return p;
+    }
+}
@@ -0,0 +1,137 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/*
+ * Allocation / operation-count budgets of hot paths. See 'budgets.properties' at test resources.
+ * Test fails if measured value is larger than its budget.
+ */
+public class Budgets {
+    private static final int NR_WARMUP = 20000;
+    private static final int NR_OPS = 100000;
+
+    private static final Properties sBudgets = load();
+
+    public interface Op {
+        /**
+         * @param i sequence number of operation.
+         */
+        void run(int i);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    private static Properties
+    load() {
+        Properties props = new Properties();
+        InputStream in = Budgets.class.getResourceAsStream("/budgets.properties");
+        assertNotNull("budgets.properties is missing", in);
+        try {
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return props;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //
+    //
+    //
+    ///////////////////////////////////////////////////////////////////////////
+    public static long
+    get(String key) {
+        String v = sBudgets.getProperty(key);
+        assertNotNull("No budget: " + key, v);
+        return Long.parseLong(v.trim());
+    }
+
+    public static void
+    assertWithin(String key, long measured) {
+        long budget = get(key);
+        if (measured > budget)
+            fail(key + ": " + measured + " is over budget(" + budget + ")");
+    }
+
+    /**
+     * @return heap bytes allocated by current thread so far.
+     */
+    public static long
+    allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return heap bytes allocated by calling thread per {@code op}. Rounded down.
+     */
+    public static long
+    allocPerOp(int nrWarmup, int nrOps, Op op) {
+        for (int i = 0; i < nrWarmup; i++)
+            op.run(i);
+        long start = allocatedBytes();
+        for (int i = 0; i < nrOps; i++)
+            op.run(i);
+        // Round down. Small overhead of measurement itself SHOULD NOT be reported as 1 byte/op.
+        return (allocatedBytes() - start) / nrOps;
+    }
+
+    public static long
+    allocPerOp(Op op) {
+        return allocPerOp(NR_WARMUP, NR_OPS, op);
+    }
+
+    public static void
+    assertAllocWithin(String key, Op op) {
+        assertWithin(key, allocPerOp(op));
+    }
+}
@@ -0,0 +1,83 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import org.junit.Test;
+
+import free.yhc.abaselib.Budgets;
+
+/*
+ * Buffers allocated by ImgScaler itself at calling thread - without helper threads.
+ */
+public class ImgScalerBudgetTest {
+    private static final int NR_WARMUP = 200;
+    private static final int NR_OPS = 2000;
+
+    private static long
+    allocPerScale(int sw, int sh, final int dw, final int dh) {
+        final int[] src = new int[sw * sh];
+        final int fsw = sw;
+        final int fsh = sh;
+        for (int i = 0; i < src.length; i++)
+            src[i] = 0xff000000 | (i * 0x010203 & 0xffffff);
+        return Budgets.allocPerOp(NR_WARMUP, NR_OPS, new Budgets.Op() {
+            @Override
+            public void
+            run(int i) {
+                ImgScaler.scale(src, fsw, fsh, dw, dh, null);
+            }
+        });
+    }
+
+    @Test
+    public void
+    scaleDown() {
+        Budgets.assertWithin("alloc.imgscaler.scale.down", allocPerScale(320, 240, 80, 60));
+    }
+
+    @Test
+    public void
+    scaleUp() {
+        Budgets.assertWithin("alloc.imgscaler.scale.up", allocPerScale(80, 60, 320, 240));
+    }
+
+    @Test
+    public void
+    scaleSameSize() {
+        Budgets.assertWithin("alloc.imgscaler.scale.samesize", allocPerScale(320, 240, 320, 240));
+    }
+}
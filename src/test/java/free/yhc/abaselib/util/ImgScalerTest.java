@@ -0,0 +1,191 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.util;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImgScalerTest {
+    private static final int MAX_BANDS = 4;
+    // { src width, src height, dst width, dst height }
+    private static final int[][] SIZES = {
+            { 640, 480, 333, 250 },
+            { 640, 480, 641, 481 },
+            { 600, 400, 100, 37 },
+            { 120, 900, 40, 1000 },
+            { 7, 5, 20, 13 },
+            { 1, 1, 5, 5 },
+            { 3, 900, 1, 1 },
+    };
+
+    private static ExecutorService sExecutor;
+
+    @BeforeClass
+    public static void
+    setUpClass() {
+        sExecutor = Executors.newFixedThreadPool(MAX_BANDS - 1);
+    }
+
+    @AfterClass
+    public static void
+    tearDownClass() {
+        sExecutor.shutdown();
+    }
+
+    private static int[]
+    randomPixels(int n, long seed) {
+        Random r = new Random(seed);
+        int[] px = new int[n];
+        for (int i = 0; i < n; i++)
+            px[i] = r.nextInt();
+        return px;
+    }
+
+    private static void
+    assertChannelsNear(int expected, int actual, int tolerance) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            int e = (expected >>> shift) & 0xff;
+            int a = (actual >>> shift) & 0xff;
+            assertTrue(Integer.toHexString(expected) + " vs " + Integer.toHexString(actual),
+                       Math.abs(e - a) <= tolerance);
+        }
+    }
+
+    @Test
+    public void
+    solidColorIsKept() {
+        for (int[] z : SIZES) {
+            int[] src = new int[z[0] * z[1]];
+            Arrays.fill(src, 0xff336699);
+            int[] dst = ImgScaler.scale(src, z[0], z[1], z[2], z[3], sExecutor, MAX_BANDS);
+            assertEquals(z[2] * z[3], dst.length);
+            for (int c : dst)
+                assertEquals(0xff336699, c);
+        }
+    }
+
+    @Test
+    public void
+    bandedOutputIsSameWithSerial() {
+        for (int[] z : SIZES) {
+            int[] src = randomPixels(z[0] * z[1], z[0] * 31 + z[1]);
+            int[] serial = ImgScaler.scale(src.clone(), z[0], z[1], z[2], z[3], null, 1);
+            int[] banded = ImgScaler.scale(src.clone(), z[0], z[1], z[2], z[3], sExecutor, MAX_BANDS);
+            assertArrayEquals(Arrays.toString(z), serial, banded);
+        }
+    }
+
+    @Test
+    public void
+    sameSizeReturnsSource() {
+        int[] src = randomPixels(12, 0);
+        assertSame(src, ImgScaler.scale(src, 4, 3, 4, 3, sExecutor));
+    }
+
+    @Test
+    public void
+    translucentColorDoesNotDrift() {
+        int color = 0x80336699;
+        int[] px = new int[64 * 64];
+        Arrays.fill(px, color);
+        int w = 64;
+        int h = 64;
+        // Each pass premultiplies and unpremultiplies once.
+        for (int i = 0; i < 10; i++) {
+            int nw = 0 == i % 2 ? 37 : 64;
+            int nh = 0 == i % 2 ? 29 : 64;
+            px = ImgScaler.scale(px, w, h, nw, nh, sExecutor, MAX_BANDS);
+            w = nw;
+            h = nh;
+        }
+        for (int c : px)
+            assertChannelsNear(color, c, 1);
+    }
+
+    @Test
+    public void
+    transparentPixelsDoNotBleed() {
+        // Left half is fully transparent red. Right half is opaque blue.
+        int w = 64;
+        int h = 8;
+        int[] src = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++)
+                src[y * w + x] = x < w / 2 ? 0x00ff0000 : 0xff0000ff;
+        }
+        int[] dst = ImgScaler.scale(src, w, h, 21, 5, null);
+        for (int c : dst) {
+            if (0 != (c >>> 24))
+                assertEquals(Integer.toHexString(c), 0, (c >> 16) & 0xff);
+        }
+    }
+
+    @Test
+    public void
+    helperFailureIsRethrownAtCaller() {
+        final Thread caller = Thread.currentThread();
+        try {
+            ImgScaler.runBands(sExecutor, MAX_BANDS, 1024, 1024, new ImgScaler.BandOp() {
+                @Override
+                public void
+                run(int from, int to) {
+                    if (Thread.currentThread() != caller)
+                        throw new IllegalStateException("band " + from);
+                    // Give helpers time to take bands.
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException ignored) { }
+                }
+            });
+            fail("Failure at helper thread is lost");
+        } catch (IllegalStateException ignored) {
+            // expected
+        }
+    }
+}
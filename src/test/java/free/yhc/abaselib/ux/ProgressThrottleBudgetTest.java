@@ -0,0 +1,109 @@
+/******************************************************************************
+ * Copyright (C) 2016
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of free.yhc.baselib
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.abaselib.ux;
+
+import org.junit.Test;
+
+import free.yhc.abaselib.Budgets;
+
+public class ProgressThrottleBudgetTest {
+    // Same with defaults of DialogTask.
+    private static final int PROGRESS_RANGE = 10000;
+    private static final long PROGRESS_INTERVAL = 16; // ms
+    // 64MB copied with 4KB buffer.
+    private static final long MAX = 64L * 1024 * 1024;
+    private static final long STEP = 4096;
+
+    /**
+     * Simulate progress of one copy task in DialogTask.
+     * @param stepNs time taken by one step.
+     * @return number of UI posts including final flush of pending update.
+     */
+    private static long
+    countPosts(long intervalMs, long stepNs) {
+        ProgressThrottle pt = new ProgressThrottle(PROGRESS_RANGE, intervalMs);
+        pt.init(MAX);
+        long posts = 0;
+        long now = 0;
+        for (long p = STEP; p <= MAX; p += STEP) {
+            now += stepNs;
+            if (pt.offer(p, now))
+                posts++;
+        }
+        if (0 <= pt.takePending())
+            posts++;
+        return posts;
+    }
+
+    @Test
+    public void
+    offer() {
+        final ProgressThrottle pt = new ProgressThrottle(PROGRESS_RANGE, PROGRESS_INTERVAL);
+        pt.init(MAX);
+        Budgets.assertAllocWithin("alloc.progressthrottle.offer", new Budgets.Op() {
+            @Override
+            public void
+            run(int i) {
+                pt.offer((i & 0x3fff) * STEP, i * 10000L);
+            }
+        });
+    }
+
+    @Test
+    public void
+    postsOfFastTask() {
+        // 16384 events in 164ms.
+        Budgets.assertWithin("ops.progressthrottle.posts.fast",
+                             countPosts(PROGRESS_INTERVAL, 10000L));
+    }
+
+    @Test
+    public void
+    postsOfSlowTask() {
+        // 16384 events in 16.4s.
+        Budgets.assertWithin("ops.progressthrottle.posts.slow",
+                             countPosts(PROGRESS_INTERVAL, 1000000L));
+    }
+
+    @Test
+    public void
+    postsWithoutInterval() {
+        // Without time-throttling, posts are bounded by progress range.
+        Budgets.assertWithin("ops.progressthrottle.posts.nointerval",
+                             countPosts(0, 1000000L));
+    }
+}